@@ -5,12 +5,18 @@
 
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
 import java.util.regex.*;
 import java.util.stream.*;
+import java.util.zip.*;
 
 public final class Cigilante {
 
@@ -21,41 +27,202 @@ public final class Cigilante {
     private static final int DEFAULT_PORT = 3952;
     private static final int MAX_REPORT_BODY_LEN = 2048;
     private static final int MAX_REPORTS = 500;
+    private static final int MAX_REPORTS_LIMIT = 1 << 26;
     private static final int MAX_BOUNTY_WEI_SCALE = 1_000_000;
     private static final int BATCH_QUERY_LIMIT = 100;
+    private static final int CURSOR_QUERY_LIMIT = 1000;
     private static final String API_REPORTS = "/reports";
     private static final String API_SUBMIT = "/submit";
     private static final String API_CLAIM = "/claim";
     private static final String API_STATS = "/stats";
     private static final String API_HEALTH = "/health";
+    private static final String API_EVENTS_STREAM = "/events/stream";
+    private static final String API_REPORTS_UNCLAIMED = "/reports/unclaimed";
+    private static final String API_REPORT = "/report";
+    private static final String API_EVENTS = "/events";
+    private static final String API_METRICS = "/metrics";
+    private static final String API_SUBMIT_BATCH = "/submit/batch";
+    private static final String API_CLAIM_BATCH = "/claim/batch";
+    private static final String API_REPORTS_BATCH = "/reports/batch";
+    private static final long STREAM_HEARTBEAT_MILLIS = 15_000;
+    private static final int STREAM_BATCH = 256;
+    private static final int STREAM_PUMPS = 2;
+    private static final int EVENT_REPLAY_LIMIT = 1000;
+    private static final int EVENT_SCAN_LIMIT = 1 << 16;
+    private static final int MAX_HEADER_BYTES = 16 << 10;
+    private static final int MAX_CHUNK_OVERHEAD = 64 << 10;
+    private static final int IDLE_POLL_MILLIS = 100;
+    private static final StaticAsset INDEX_PAGE = new StaticAsset(ContentType.HTML_UTF8, getVigilanteWatchHtml());
+    private static final int MAX_REQUEST_BODY = 1 << 20;
+    private static final int MAX_BATCH_BODY = 32 << 20;
+    private static final int MAX_BATCH_ITEMS = 10_000;
 
     private final int port;
     private final WatchLedger ledger;
     private final CigilanteEngine engine;
+    private final EventJournal eventJournal;
+    private final EventStreams streams;
+    private final CG_Options options;
+    private final ResponseCache responseCache;
+    private final RouteTable routes;
+    private final RateLimiter ipLimiter;
+    private final RateLimiter fromLimiter;
+    private final LongAdder shed = new LongAdder();
     private ServerSocket serverSocket;
     private ExecutorService executor;
+    private volatile NioServer nioServer;
+    private volatile Semaphore inFlight;
+    private ScheduledThreadPoolExecutor deadlines;
 
     public Cigilante(int port) {
-        this.port = port;
-        this.ledger = new WatchLedger();
+        this(CG_Options.parse(new String[] { "--port", String.valueOf(port) }));
+    }
+
+    private Cigilante(CG_Options opts) {
+        this.port = opts.port;
+        this.options = opts;
+        this.responseCache = opts.responseCacheEntries > 0 ? new ResponseCache(opts.responseCacheEntries) : null;
+        FragmentCache.configure((long) opts.fragmentCacheMb << 20);
+        this.ipLimiter = opts.ipRate > 0 ? new RateLimiter(opts.ipRate, 2.0 * opts.ipRate) : null;
+        this.fromLimiter = opts.fromRate > 0 ? new RateLimiter(opts.fromRate, 2.0 * opts.fromRate) : null;
+        this.routes = new RouteTable(
+            new Route("/", Route.GET, INDEX_PAGE::serve),
+            new Route("/index", Route.GET, INDEX_PAGE::serve),
+            new Route("/index.html", Route.GET, INDEX_PAGE::serve),
+            new Route(API_REPORTS, Route.GET, req -> cached(req, () -> apiReports(req))),
+            new Route(API_REPORTS_UNCLAIMED, Route.GET, req -> cached(req, () -> apiReportsUnclaimed(req))),
+            new Route(API_REPORT, Route.GET, this::apiReportById),
+            new Route(API_SUBMIT, Route.POST, this::apiSubmit),
+            new Route(API_CLAIM, Route.POST, this::apiClaim),
+            new Route(API_SUBMIT_BATCH, Route.POST, MAX_BATCH_BODY, this::apiSubmitBatch),
+            new Route(API_CLAIM_BATCH, Route.POST, MAX_BATCH_BODY, this::apiClaimBatch),
+            new Route(API_REPORTS_BATCH, Route.GET | Route.POST, MAX_BATCH_BODY, this::apiReportsBatch),
+            new Route(API_STATS, Route.GET, req -> cached(req, this::apiStats)),
+            new Route(API_HEALTH, Route.GET, req -> apiHealth()),
+            new Route(API_EVENTS, Route.GET, this::apiEvents),
+            new Route(API_METRICS, Route.GET, req -> apiMetrics()));
+        if (opts.eventDir != null) {
+            try {
+                this.eventJournal = EventJournal.open(new File(opts.eventDir), opts.eventRetentionMb << 20, TimeUnit.HOURS.toMillis(opts.eventRetentionHours));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Event journal: " + e.getMessage(), e);
+            }
+            EventLog.configure(opts.eventLogSize, eventJournal.next());
+            eventJournal.follow(EventLog.ring());
+            System.out.println("Event journal " + opts.eventDir + " — events " + eventJournal.first() + ".." + eventJournal.next());
+        } else {
+            this.eventJournal = null;
+            EventLog.configure(opts.eventLogSize, 0);
+        }
+        this.streams = new EventStreams(eventJournal, STREAM_PUMPS, opts.maxStreams, opts.writeTimeoutMillis);
+        int shards = opts.shards;
+        if (shards <= 0 && opts.walDir != null) shards = LedgerJournal.persistedShards(new File(opts.walDir));
+        this.ledger = new WatchLedger(opts.maxReports, shards > 0 ? shards : WatchLedger.defaultShards());
         this.engine = new CigilanteEngine(ledger);
+        if (opts.walDir != null) {
+            try {
+                long t0 = System.nanoTime();
+                LedgerJournal journal = LedgerJournal.open(new File(opts.walDir), opts.durability, ledger);
+                ledger.attachJournal(journal);
+                if (opts.snapshotSeconds > 0) LedgerSnapshot.schedule(new File(opts.walDir), ledger, journal, opts.snapshotSeconds);
+                Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
+                System.out.println("Journal " + opts.walDir + " (" + opts.durability + ") — " + ledger.reportCount() + " reports recovered in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0) + " ms");
+            } catch (IOException e) {
+                throw new UncheckedIOException("Journal: " + e.getMessage(), e);
+            }
+        }
     }
 
     public static void main(String[] args) {
-        int p = DEFAULT_PORT;
-        for (int i = 0; i < args.length; i++) {
-            if ("--port".equals(args[i]) && i + 1 < args.length) {
-                try { p = Integer.parseInt(args[i + 1]); } catch (NumberFormatException ignored) { }
-                break;
+        Cigilante app = new Cigilante(CG_Options.parse(args));
+        app.run(args);
+    }
+
+    private static final class CG_Options {
+        int port = DEFAULT_PORT;
+        int maxReports = MAX_REPORTS;
+        String walDir;
+        Durability durability = Durability.BATCH;
+        int snapshotSeconds = 60;
+        int shards;
+        int eventLogSize = EventLog.DEFAULT_CAPACITY;
+        String eventDir;
+        long eventRetentionMb = 1024;
+        long eventRetentionHours = 24 * 7;
+        boolean nio;
+        int reactors = Runtime.getRuntime().availableProcessors();
+        int workers = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+        boolean virtualThreads;
+        int maxInFlight = 10_000;
+        int readTimeoutMillis = 10_000;
+        int writeTimeoutMillis = 10_000;
+        int keepAliveMillis = 5_000;
+        int maxRequestsPerConnection = 1_000;
+        int responseCacheEntries = 256;
+        int fragmentCacheMb = 64;
+        int threads = 512;
+        int requestQueue = 4096;
+        int maxStreams = 4096;
+        int ipRate;
+        // Off by default: a submission without a from is limited as 0x0, which the bundled UI and CLI
+        // send for every user, so all anonymous traffic would share one bucket.
+        int fromRate;
+
+        static CG_Options parse(String[] args) {
+            CG_Options o = new CG_Options();
+            o.port = intOption(args, "--port", DEFAULT_PORT);
+            o.maxReports = Math.max(1, Math.min(MAX_REPORTS_LIMIT, intOption(args, "--max-reports", MAX_REPORTS)));
+            o.walDir = stringOption(args, "--wal", null);
+            o.snapshotSeconds = Math.max(0, intOption(args, "--snapshot-interval", o.snapshotSeconds));
+            o.shards = intOption(args, "--shards", 0);
+            o.eventLogSize = Math.max(2, intOption(args, "--event-log-size", o.eventLogSize));
+            o.eventDir = stringOption(args, "--event-journal", null);
+            o.eventRetentionMb = Math.max(1, intOption(args, "--event-retention-mb", (int) o.eventRetentionMb));
+            o.eventRetentionHours = Math.max(1, intOption(args, "--event-retention-hours", (int) o.eventRetentionHours));
+            o.nio = Arrays.asList(args).contains("--nio");
+            o.reactors = Math.max(1, intOption(args, "--reactors", o.reactors));
+            o.workers = Math.max(1, intOption(args, "--workers", o.workers));
+            o.virtualThreads = Arrays.asList(args).contains("--virtual-threads");
+            o.maxInFlight = Math.max(1, intOption(args, "--max-inflight", o.maxInFlight));
+            o.readTimeoutMillis = Math.max(1, intOption(args, "--read-timeout-ms", o.readTimeoutMillis));
+            o.writeTimeoutMillis = Math.max(1, intOption(args, "--write-timeout-ms", o.writeTimeoutMillis));
+            o.keepAliveMillis = Math.max(1, intOption(args, "--keepalive-ms", o.keepAliveMillis));
+            o.maxRequestsPerConnection = Math.max(1, intOption(args, "--max-requests-per-conn", o.maxRequestsPerConnection));
+            o.responseCacheEntries = Math.max(0, intOption(args, "--response-cache", o.responseCacheEntries));
+            o.fragmentCacheMb = Math.max(0, intOption(args, "--fragment-cache-mb", o.fragmentCacheMb));
+            o.threads = Math.max(1, intOption(args, "--threads", o.threads));
+            o.requestQueue = Math.max(1, intOption(args, "--request-queue", o.requestQueue));
+            o.maxStreams = Math.max(1, intOption(args, "--max-streams", o.maxStreams));
+            o.ipRate = Math.max(0, intOption(args, "--ip-rate", o.ipRate));
+            o.fromRate = Math.max(0, intOption(args, "--from-rate", o.fromRate));
+            String d = stringOption(args, "--durability", null);
+            if (d != null) {
+                try { o.durability = Durability.valueOf(d.toUpperCase()); } catch (IllegalArgumentException ignored) { }
             }
+            return o;
         }
-        Cigilante app = new Cigilante(p);
-        app.run(args);
+    }
+
+    private static int intOption(String[] args, String name, int def) {
+        String v = stringOption(args, name, null);
+        if (v == null) return def;
+        try { return Integer.parseInt(v); } catch (NumberFormatException e) { return def; }
+    }
+
+    private static String stringOption(String[] args, String name, String def) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (name.equals(args[i])) return args[i + 1];
+        }
+        return def;
     }
 
     private void run(String[] args) {
         boolean cli = args.length > 0 && "--cli".equals(args[0]);
+        boolean bench = args.length > 0 && "--bench".equals(args[0]);
         if (cli) runCli();
+        else if (bench) LedgerBench.run(args);
+        else if (options.nio) startNioServer();
+        else if (options.virtualThreads) startVirtualThreadServer();
         else startServer();
     }
 
@@ -81,12 +248,12 @@ public final class Cigilante {
             switch (cmd) {
                 case "submit":
                     if (rest.isEmpty()) { System.out.println("Usage: submit <body>"); return; }
-                    String id = engine.submitReport(rest, "0x0", 0);
-                    System.out.println("Report id: " + id);
+                    long id = engine.submitReport(rest, "0x0", 0);
+                    System.out.println("Report id: " + ReportIdGen.format(id));
                     break;
                 case "list":
                     List<WatchReport> list = engine.listReports(0, BATCH_QUERY_LIMIT);
-                    for (WatchReport r : list) System.out.println(r.getId() + " | " + r.getBody().substring(0, Math.min(60, r.getBody().length())) + "...");
+                    for (WatchReport r : list) System.out.println(ReportIdGen.format(r.getId()) + " | " + r.getBody().substring(0, Math.min(60, r.getBody().length())) + "...");
                     break;
                 case "claim":
                     if (rest.isEmpty()) { System.out.println("Usage: claim <reportId>"); return; }
@@ -107,415 +274,4564 @@ public final class Cigilante {
 
     private void startServer() {
         try {
-            serverSocket = new ServerSocket(port);
-            executor = Executors.newCachedThreadPool();
-            System.out.println("Cigilante HTTP " + port + " — " + WATCH_CHAIN_REF);
+            serverSocket = new ServerSocket(port, 1024);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(options.threads, options.threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(options.requestQueue));
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            startDeadlines();
+            System.out.println("Cigilante HTTP " + port + " (pooled, " + options.threads + " threads, queue " + options.requestQueue + ") — " + WATCH_CHAIN_REF);
             while (true) {
                 Socket client = serverSocket.accept();
-                executor.submit(() -> handleConnection(client));
+                try {
+                    executor.execute(() -> handleConnection(client));
+                } catch (RejectedExecutionException e) {
+                    rejectBusy(client);
+                }
+            }
+        } catch (IOException e) {
+            if (serverSocket == null || !serverSocket.isClosed()) System.err.println("Server: " + e.getMessage());
+        }
+    }
+
+    // One virtual thread per connection, with at most maxInFlight connections being served; beyond
+    // that new connections get a 503 straight from the accept loop. Reads and writes have deadlines
+    // so a slow client only ever holds its own (cheap) thread and one permit for a bounded time.
+    // Before Java 21 there are none, and the server runs the bounded pool instead.
+    private void startVirtualThreadServer() {
+        ExecutorService vt = virtualThreadExecutor();
+        if (vt == null) {
+            System.err.println("Virtual threads need Java 21+ (running " + System.getProperty("java.version") + "); --virtual-threads ignored");
+            startServer();
+            return;
+        }
+        executor = vt;
+        Semaphore permits = new Semaphore(options.maxInFlight);
+        inFlight = permits;
+        startDeadlines();
+        try {
+            serverSocket = new ServerSocket(port, 1024);
+            System.out.println("Cigilante HTTP " + port + " (virtual threads, max " + options.maxInFlight + " in flight) — " + WATCH_CHAIN_REF);
+            while (true) {
+                Socket client = serverSocket.accept();
+                if (!permits.tryAcquire()) {
+                    rejectBusy(client);
+                    continue;
+                }
+                executor.submit(() -> {
+                    try {
+                        serveConnection(client);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        } catch (IOException e) {
+            if (!serverSocket.isClosed()) System.err.println("Server: " + e.getMessage());
+        }
+    }
+
+    // One timer thread closes the sockets of requests and flushes that overrun their deadline.
+    private void startDeadlines() {
+        deadlines = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "cg-deadlines");
+            t.setDaemon(true);
+            return t;
+        });
+        deadlines.setRemoveOnCancelPolicy(true);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor is final in Java 21; looked up reflectively so this
+    // file still builds and runs on 17.
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // Sheds a connection the server has no room for: 503 with Retry-After, then close.
+    private void rejectBusy(Socket client) {
+        shed.increment();
+        try {
+            client.setSoTimeout(100);
+            client.getOutputStream().write("HTTP/1.1 503 Service Unavailable\r\nRetry-After: 1\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {
+        } finally {
+            try { client.close(); } catch (IOException ignored) { }
+        }
+    }
+
+    // Connections currently being served in --virtual-threads mode, or -1 in the other modes.
+    int inFlight() {
+        Semaphore s = inFlight;
+        return s == null ? -1 : options.maxInFlight - s.availablePermits();
+    }
+
+    private void startNioServer() {
+        try {
+            nioServer = new NioServer(this, port, options.reactors, options.workers);
+            System.out.println("Cigilante HTTP " + port + " (nio, " + options.reactors + " reactors, " + options.workers + " workers) — " + WATCH_CHAIN_REF);
+            nioServer.acceptLoop();
+        } catch (IOException e) {
+            System.err.println("Server: " + e.getMessage());
+        }
+    }
+
+    private void stopServer() {
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException ignored) { }
+        if (executor != null) executor.shutdownNow();
+        if (deadlines != null) deadlines.shutdownNow();
+        if (nioServer != null) nioServer.close();
+    }
+
+    private void handleConnection(Socket client) { serveConnection(client); }
+
+    // Waits up to keepAliveMillis for the first byte of the next request. On the bounded pool the wait
+    // is sliced so that, once connections are queued for a thread, an idle one is closed to make room.
+    private boolean awaitRequest(Socket client, RequestReader in) throws IOException {
+        if (in.buffered() > 0 || !(executor instanceof ThreadPoolExecutor) || inFlight != null) {
+            client.setSoTimeout(options.keepAliveMillis);
+            return in.await();
+        }
+        BlockingQueue<Runnable> queued = ((ThreadPoolExecutor) executor).getQueue();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.keepAliveMillis);
+        while (true) {
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) return false;
+            client.setSoTimeout((int) Math.min(IDLE_POLL_MILLIS, left));
+            try {
+                if (!in.await()) return false;
+                client.setSoTimeout(options.keepAliveMillis);
+                return true;
+            } catch (SocketTimeoutException e) {
+                if (!queued.isEmpty()) return false;
+            }
+        }
+    }
+
+    // Serves requests off one connection until the client closes or asks to close it, it sits idle for
+    // keepAliveMillis, or it reaches maxRequestsPerConnection. Pipelined requests are answered in
+    // order, and responses to requests that are already buffered leave together in one flush.
+    // SO_TIMEOUT bounds each read and a scheduled close bounds the request as a whole and each flush,
+    // which a blocking socket cannot time out on its own. On the pooled default an idle connection
+    // also gives its thread up to queued ones.
+    private void serveConnection(Socket client) {
+        Runnable kill = () -> {
+            try { client.close(); } catch (IOException ignored) { }
+        };
+        ScheduledFuture<?> guard = null;
+        boolean streaming = false;
+        try {
+            client.setTcpNoDelay(true);
+            RequestReader in = new RequestReader(client.getInputStream(), clientKey(client.getInetAddress()), routes);
+            OutputStream out = new BufferedOutputStream(client.getOutputStream(), 8192);
+            for (int served = 1; ; served++) {
+                if (!awaitRequest(client, in)) break;
+                client.setSoTimeout(options.readTimeoutMillis);
+                guard = deadlines.schedule(kill, options.readTimeoutMillis, TimeUnit.MILLISECONDS);
+                Request req;
+                try {
+                    req = in.next();
+                } catch (HttpException e) {
+                    out.write(new Response(e.status, ContentType.JSON_UTF8, new byte[0]).toBytes(false));
+                    out.flush();
+                    break;
+                }
+                guard.cancel(false);
+                if (req == null) break;
+                if (req.path.is(API_EVENTS_STREAM)) {
+                    out.flush();
+                    client.setSoTimeout(0);
+                    streaming = streamEvents(req, out, client);
+                    return;
+                }
+                boolean keepAlive = req.keepAlive && served < options.maxRequestsPerConnection;
+                dispatch(req).writeTo(out, keepAlive);
+                if (!keepAlive || in.buffered() == 0) {
+                    guard = deadlines.schedule(kill, options.writeTimeoutMillis, TimeUnit.MILLISECONDS);
+                    out.flush();
+                    guard.cancel(false);
+                }
+                if (!keepAlive) break;
+            }
+        } catch (Exception ignored) {
+        } finally {
+            if (guard != null) guard.cancel(false);
+            if (!streaming) kill.run();
+        }
+    }
+
+    private Response dispatch(Request req) {
+        if (ipLimiter != null) {
+            long wait = ipLimiter.acquire(req.client);
+            if (wait > 0) return throttled(wait);
+        }
+        Route route = req.route;
+        if (route == null) return new Response(HttpStatus.NOT_FOUND, ContentType.JSON_UTF8, new byte[0]);
+        if (!route.allows(req.method)) return new Response(HttpStatus.METHOD_NOT_ALLOWED, ContentType.JSON_UTF8, new byte[0], "Allow: " + route.allowHeader() + "\r\n");
+        return route.handle(req);
+    }
+
+    // Maps any address to a long key for the rate limiter: IPv4 exactly, IPv6 hashed.
+    static long clientKey(InetAddress address) {
+        if (address == null) return 0;
+        byte[] b = address.getAddress();
+        if (b.length == 4) return 1L << 32 | (b[0] & 0xffL) << 24 | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8 | (b[3] & 0xff);
+        long h = 0xcbf29ce484222325L;
+        for (byte x : b) h = (h ^ (x & 0xff)) * 0x100000001b3L;
+        return h;
+    }
+
+    private static Response throttled(long waitNanos) {
+        long seconds = Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L);
+        return new Response(HttpStatus.TOO_MANY_REQUESTS, ContentType.JSON_UTF8, ("{\"error\":\"" + CG_ErrorCodes.RATE_LIMITED + "\"}").getBytes(StandardCharsets.UTF_8), "Retry-After: " + seconds + "\r\n");
+    }
+
+    private Response apiHealth() {
+        return jsonResponse("{\"status\":\"ok\",\"ref\":\"" + WATCH_CHAIN_REF + "\"" + (inFlight != null ? ",\"inFlight\":" + inFlight() + ",\"maxInFlight\":" + options.maxInFlight : "") + "}");
+    }
+
+    // Per-route request counts, non-2xx/304 outcomes and mean handler time.
+    private Response apiMetrics() {
+        JsonWriter w = JsonWriter.local().beginObject().name(JsonKeys.SHED).value(shed.sum())
+            .name(JsonKeys.THROTTLED_IP).value(ipLimiter != null ? ipLimiter.throttled.sum() : 0)
+            .name(JsonKeys.THROTTLED_FROM).value(fromLimiter != null ? fromLimiter.throttled.sum() : 0)
+            .name(JsonKeys.STREAMS).value(streams.open())
+            .name(JsonKeys.ROUTES).beginArray();
+        for (Route r : routes.all()) {
+            long count = r.requests.sum();
+            w.beginObject().name(JsonKeys.PATH).value(r.path).name(JsonKeys.REQUESTS).value(count).name(JsonKeys.ERRORS).value(r.errors.sum())
+                .name(JsonKeys.MEAN_MICROS).value(count == 0 ? 0 : r.nanos.sum() / count / 1000).endObject();
+        }
+        return w.endArray().endObject().response();
+    }
+
+    // Ledger-derived GETs are served from responseCache while the ledger version is unchanged.
+    private Response cached(Request req, java.util.function.Supplier<Response> build) {
+        return responseCache != null ? responseCache.serve(req, engine.version(), build) : build.get();
+    }
+
+    private Response apiReportById(Request req) {
+        String id = req.param("id");
+        if (id == null || id.isEmpty()) return jsonResponse("{\"error\":\"CG_MissingId\"}", 400);
+        try {
+            WatchReport r = engine.getReportById(id);
+            JsonWriter w = JsonWriter.local();
+            ReportToJson.detail(w, r);
+            return w.response();
+        } catch (CG_Exception e) {
+            return jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400);
+        }
+    }
+
+    private Response apiReportsUnclaimed(Request req) {
+        int offset = req.intParam("offset", 0), limit = req.intParam("limit", BATCH_QUERY_LIMIT);
+        String cursor = req.param("cursor");
+        try {
+            List<WatchReport> list = cursor != null
+                ? engine.listAfter(cursor, Math.min(CURSOR_QUERY_LIMIT, limit), true)
+                : engine.listUnclaimed(offset, Math.min(BATCH_QUERY_LIMIT, limit));
+            return ReportToJson.page(JsonWriter.local(), list, PageCursor.next(list, cursor), false).response();
+        } catch (CG_Exception e) {
+            return jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400);
+        }
+    }
+
+    private Response apiEvents(Request req) {
+        EventFilter filter;
+        try {
+            filter = EventFilter.parse(req.param("type"), req.param("report"));
+        } catch (CG_Exception e) {
+            return jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400);
+        }
+        String since = req.param("since");
+        if (since != null) {
+            String max = req.param("max");
+            try {
+                return apiEventsSince(Math.max(0, Long.parseLong(since)), max == null ? BATCH_QUERY_LIMIT : Math.max(1, Math.min(EVENT_REPLAY_LIMIT, Integer.parseInt(max))), filter);
+            } catch (NumberFormatException e) {
+                return jsonResponse("{\"error\":\"" + CG_ErrorCodes.INVALID_CURSOR + "\"}", 400);
+            }
+        }
+        // The ring (--event-log-size) bounds how far back n, since and stream resumes reach; n itself is
+        // capped like a since replay.
+        int n = Math.min(EVENT_REPLAY_LIMIT, req.intParam("n", 50));
+        EventRing ring = EventLog.ring();
+        EventRecord rec = new EventRecord();
+        JsonWriter w = JsonWriter.local().beginObject().name(JsonKeys.EVENTS).beginArray();
+        for (long seq : ring.recent(n, filter, rec)) {
+            if (ring.read(seq, rec)) rec.write(w);
+        }
+        return w.endArray().endObject().response();
+    }
+
+    // Server-Sent Events over the event ring, resuming after Last-Event-ID. The connection is handed to
+    // the stream pumps (EventStreams) and the calling thread goes back to serving requests. Returns
+    // false if the request was answered here instead and the connection should be closed.
+    private boolean streamEvents(Request req, OutputStream raw, Closeable conn) throws IOException {
+        EventFilter filter;
+        try {
+            filter = EventFilter.parse(req.param("type"), req.param("report"));
+        } catch (CG_Exception e) {
+            raw.write(jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400).toBytes(false));
+            raw.flush();
+            return false;
+        }
+        long head = EventLog.ring().head();
+        long cursor = head;
+        String last = req.header("last-event-id");
+        if (last != null) try { cursor = Math.min(head, Math.max(0, Long.parseLong(last.trim()) + 1)); } catch (NumberFormatException ignored) { }
+        if (streams.add(conn, raw, filter, cursor)) return true;
+        shed.increment();
+        raw.write(new Response(HttpStatus.SERVICE_UNAVAILABLE, ContentType.JSON_UTF8, new byte[0], "Retry-After: 1\r\n").toBytes(false));
+        raw.flush();
+        return false;
+    }
+
+    private static void writeStreamEvent(OutputStream out, JsonWriter w, EventRecord r) throws IOException {
+        out.write(("id: " + r.seq + "\nevent: " + r.kind.wireName + "\ndata: ").getBytes(StandardCharsets.US_ASCII));
+        r.write(w.reset());
+        w.writeTo(out);
+        out.write('\n');
+        out.write('\n');
+    }
+
+    // Replays events from sequence `since`: the journal's range first, then the in-memory ring.
+    // At most EVENT_SCAN_LIMIT records are examined per call, so a selective filter cannot turn one
+    // request into a full scan; "next" is the sequence to ask for on the following call.
+    private Response apiEventsSince(long since, int max, EventFilter filter) {
+        EventRing ring = EventLog.ring();
+        JsonWriter w = JsonWriter.local().beginObject().name(JsonKeys.EVENTS).beginArray();
+        int[] count = { 0 };
+        EventSink sink = r -> {
+            if (count[0] == max) return false;
+            if (filter.test(r)) {
+                count[0]++;
+                r.write(w);
+            }
+            return true;
+        };
+        long oldest = eventJournal != null ? Math.min(eventJournal.first(), ring.oldest()) : ring.oldest();
+        long seq = Math.max(since, oldest);
+        int budget = EVENT_SCAN_LIMIT;
+        try {
+            if (eventJournal != null && seq < eventJournal.next()) {
+                long from = seq;
+                seq = eventJournal.read(seq, budget, sink);
+                budget -= (int) Math.max(0, seq - from);
+            }
+            EventRecord rec = new EventRecord();
+            while (budget-- > 0 && count[0] < max) {
+                if (!ring.read(seq, rec)) {
+                    if (seq >= ring.oldest()) break;
+                    seq = ring.oldest();
+                    continue;
+                }
+                if (!sink.accept(rec)) break;
+                seq++;
+            }
+        } catch (IOException e) {
+            return jsonResponse("{\"error\":\"" + CG_ErrorCodes.EVENT_READ_FAILED + "\"}", 400);
+        }
+        return w.endArray().name(JsonKeys.OLDEST).value(oldest).name(JsonKeys.NEXT).value(seq).endObject().response();
+    }
+
+    private Response apiReports(Request req) {
+        int offset = req.intParam("offset", 0), limit = req.intParam("limit", BATCH_QUERY_LIMIT);
+        String cursor = req.param("cursor");
+        try {
+            List<WatchReport> list = cursor != null
+                ? engine.listAfter(cursor, Math.min(CURSOR_QUERY_LIMIT, limit), false)
+                : engine.listReports(offset, Math.min(BATCH_QUERY_LIMIT, limit));
+            return ReportToJson.page(JsonWriter.local(), list, PageCursor.next(list, cursor), true).response();
+        } catch (CG_Exception e) {
+            return jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400);
+        }
+    }
+
+    private Response apiSubmit(Request req) {
+        String body = req.param("body");
+        String from = req.param("from");
+        int bountyWei = req.intParam("bountyWei", 0);
+        if (from == null) from = Defaults.ZERO_ADDRESS;
+        if (fromLimiter != null) {
+            long wait = fromLimiter.acquire(RateLimiter.addressKey(from));
+            if (wait > 0) return throttled(wait);
+        }
+        try {
+            long id = engine.submitReport(body != null ? body : "", from, bountyWei);
+            return jsonResponse("{\"reportId\":\"" + ReportIdGen.format(id) + "\"}");
+        } catch (CG_Exception e) {
+            return jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400);
+        }
+    }
+
+    // Results are in request order: a reportId for each appended item, an error code for the rest.
+    private Response apiSubmitBatch(Request req) {
+        SubmitBatch batch;
+        try {
+            batch = SubmitBatch.parse(req);
+        } catch (CG_Exception e) {
+            return jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400);
+        }
+        int n = batch.size;
+        if (fromLimiter != null) {
+            // Every item takes a token from its address; the items an address has no tokens left for
+            // are rejected, the later ones first.
+            Map<String, int[]> allowance = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                if (batch.errors[i] == null) allowance.computeIfAbsent(batch.from(i), f -> new int[1])[0]++;
+            }
+            allowance.forEach((from, left) -> left[0] = fromLimiter.acquire(RateLimiter.addressKey(from), left[0]));
+            for (int i = 0; i < n; i++) {
+                if (batch.errors[i] == null && allowance.get(batch.from(i))[0]-- <= 0) batch.errors[i] = CG_ErrorCodes.RATE_LIMITED;
+            }
+        }
+        String[] bodies = new String[n], froms = new String[n];
+        int[] bounties = new int[n], index = new int[n];
+        int valid = 0;
+        for (int i = 0; i < n; i++) {
+            if (batch.errors[i] != null) continue;
+            bodies[valid] = batch.bodies[i];
+            froms[valid] = batch.from(i);
+            bounties[valid] = batch.bounties[i];
+            index[valid++] = i;
+        }
+        long[] ids;
+        try {
+            ids = engine.submitBatch(bodies, froms, bounties, valid);
+        } catch (CG_Exception e) {
+            return jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400);
+        }
+        JsonWriter w = JsonWriter.local().beginObject().name(JsonKeys.RESULTS).beginArray();
+        int accepted = 0;
+        for (int i = 0, v = 0; i < n; i++) {
+            w.beginObject();
+            long id = v < valid && index[v] == i ? ids[v++] : -1;
+            if (id >= 0) {
+                w.name(JsonKeys.REPORT_ID).reportId(id);
+                accepted++;
+            } else {
+                w.name(JsonKeys.ERROR).value(batch.errors[i] != null ? batch.errors[i] : CG_ErrorCodes.REPORT_CAP_REACHED);
+            }
+            w.endObject();
+        }
+        return w.endArray().name(JsonKeys.ACCEPTED).value(accepted).endObject().response();
+    }
+
+    private Response apiClaimBatch(Request req) {
+        List<String> ids = req.idList();
+        if (ids.isEmpty()) return jsonResponse("{\"error\":\"" + CG_ErrorCodes.MISSING_ID + "\"}", 400);
+        if (ids.size() > MAX_BATCH_ITEMS) return jsonResponse("{\"error\":\"" + CG_ErrorCodes.BATCH_TOO_LARGE + "\"}", 400);
+        String[] codes = engine.claimBatch(ids, req.param("claimer"));
+        JsonWriter w = JsonWriter.local().beginObject().name(JsonKeys.RESULTS).beginArray();
+        int claimed = 0;
+        for (int i = 0; i < codes.length; i++) {
+            w.beginObject().name(JsonKeys.REPORT_ID).value(ids.get(i));
+            if (codes[i] == null) {
+                w.name(JsonKeys.OK).value(true);
+                claimed++;
+            } else {
+                w.name(JsonKeys.ERROR).value(codes[i]);
+            }
+            w.endObject();
+        }
+        return w.endArray().name(JsonKeys.CLAIMED).value(claimed).endObject().response();
+    }
+
+    // Found reports in full, in request order; an id that names no report, or is no id at all, gets an
+    // error entry instead.
+    private Response apiReportsBatch(Request req) {
+        List<String> ids = req.idList();
+        if (ids.isEmpty()) return jsonResponse("{\"error\":\"" + CG_ErrorCodes.MISSING_ID + "\"}", 400);
+        if (ids.size() > MAX_BATCH_ITEMS) return jsonResponse("{\"error\":\"" + CG_ErrorCodes.BATCH_TOO_LARGE + "\"}", 400);
+        WatchReport[] found = engine.getReportsById(ids);
+        JsonWriter w = JsonWriter.local().beginObject().name(JsonKeys.REPORTS).beginArray();
+        for (int i = 0; i < found.length; i++) {
+            if (found[i] != null) ReportToJson.detail(w, found[i]);
+            else w.beginObject().name(JsonKeys.ID).value(ids.get(i)).name(JsonKeys.ERROR).value(engine.isReportId(ids.get(i)) ? CG_ErrorCodes.REPORT_NOT_FOUND : CG_ErrorCodes.INVALID_REPORT_ID).endObject();
+        }
+        return w.endArray().endObject().response();
+    }
+
+    private Response apiClaim(Request req) {
+        String id = req.param("reportId");
+        String claimer = req.param("claimer");
+        try {
+            engine.claimBounty(id != null ? id : "", claimer != null ? claimer : "0x0");
+            return jsonResponse("{\"ok\":true}");
+        } catch (CG_Exception e) {
+            return jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400);
+        }
+    }
+
+    private Response apiStats() {
+        LedgerStats s = engine.getStats();
+        String json = "{\"reportCount\":" + s.getReportCount() + ",\"totalBountyWei\":" + s.getTotalBountyWei() + ",\"claimedCount\":" + s.getClaimedCount() + "}";
+        return jsonResponse(json);
+    }
+
+    private static Response jsonResponse(String body) { return jsonResponse(body, HttpStatus.OK); }
+    private static Response jsonResponse(String body, int status) {
+        return new Response(status == HttpStatus.OK ? status : HttpStatus.BAD_REQUEST, ContentType.JSON_UTF8, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String escape(String s) {
+        if (s == null) return "";
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "");
+    }
+
+    private static String getVigilanteWatchHtml() {
+        return "<!DOCTYPE html><html lang=\"en\"><head><meta charset=\"UTF-8\"><meta name=\"viewport\" content=\"width=device-width, initial-scale=1\"><title>VigilanteWatch — Cigilante</title><style>" + getVigilanteWatchCss() + "</style></head><body><div class=\"app\"><header><h1>VigilanteWatch</h1><p class=\"tag\">Cigilante bounty board</p></header><main><section class=\"card\"><h2>Submit report</h2><textarea id=\"reportBody\" placeholder=\"Report body...\" maxlength=\"2048\"></textarea><input id=\"bountyWei\" type=\"number\" min=\"0\" placeholder=\"Bounty (wei)\"><button id=\"submitBtn\">Submit</button></section><section class=\"card\"><h2>Reports</h2><div id=\"reportList\"></div><button id=\"refreshBtn\">Refresh</button></section><section class=\"card\"><h2>Stats</h2><pre id=\"stats\"></pre></section></main><footer>Cigilante — Watch net. Not legal advice.</footer></div><script>" + getVigilanteWatchJs() + "</script></body></html>";
+    }
+
+    private static String getVigilanteWatchCss() {
+        return "*{box-sizing:border-box}body{margin:0;font-family:system-ui,sans-serif;background:#0d0c10;color:#e0dce8;min-height:100vh}.app{max-width:640px;margin:0 auto;padding:1.5rem}.app header{text-align:center;margin-bottom:1.5rem}.app h1{font-size:1.75rem;color:#a78bfa}.app .tag{color:#888;font-size:0.9rem}.card{background:rgba(30,28,40,0.95);border:1px solid #3d3a4a;border-radius:12px;padding:1.25rem;margin-bottom:1rem}.card h2{font-size:1rem;color:#a78bfa;margin:0 0 0.75rem 0}#reportBody{width:100%;min-height:80px;padding:0.75rem;border:1px solid #3d3a4a;border-radius:8px;background:#1a1820;color:#e0dce8;font-size:0.95rem}#bountyWei{width:120px;padding:0.5rem;margin:0.5rem 0.5rem 0 0;border:1px solid #3d3a4a;border-radius:6px;background:#1a1820;color:#e0dce8}.card button{padding:0.5rem 1rem;background:#7c3aed;border:none;border-radius:8px;color:#fff;font-weight:600;cursor:pointer;margin-top:0.5rem}.card button:hover{background:#6d28d9}#reportList{margin:0.5rem 0;font-size:0.9rem}#reportList .item{margin-bottom:0.5rem;padding:0.5rem;background:rgba(0,0,0,0.2);border-radius:6px}#stats{font-size:0.85rem;color:#aaa}footer{text-align:center;margin-top:1.5rem;color:#666;font-size:0.8rem}";
+    }
+
+    private static String getVigilanteWatchJs() {
+        return "var API='/reports';var SUBMIT='/submit';var CLAIM='/claim';var STATS='/stats';function qs(s){return document.querySelector(s)}function qsa(s){return document.querySelectorAll(s)}function refreshReports(){fetch(API+'?limit=50').then(function(r){return r.json()}).then(function(d){var el=qs('#reportList');el.innerHTML='';(d.reports||[]).forEach(function(r){var div=document.createElement('div');div.className='item';div.innerHTML='<strong>'+r.id+'</strong> | '+r.body.substring(0,80)+'... | bounty: '+r.bountyWei+(r.claimed?' (claimed)':'')+' <button data-id=\"'+r.id+'\">Claim</button>';el.appendChild(div)});qsa('#reportList button').forEach(function(btn){btn.onclick=function(){fetch(CLAIM+'?reportId='+encodeURIComponent(btn.getAttribute('data-id'))+'&claimer=0x0',{method:'POST'}).then(function(r){return r.json()}).then(function(d){if(d.ok)refreshReports();if(d.error)alert(d.error)})}})})}function refreshStats(){fetch(STATS).then(function(r){return r.json()}).then(function(d){qs('#stats').textContent='Reports: '+d.reportCount+' | Total bounty: '+d.totalBountyWei+' | Claimed: '+d.claimedCount})}qs('#submitBtn').onclick=function(){var body=qs('#reportBody').value.trim();var bounty=qs('#bountyWei').value||'0';fetch(SUBMIT,{method:'POST',headers:{'Content-Type':'application/x-www-form-urlencoded'},body:'body='+encodeURIComponent(body)+'&bountyWei='+encodeURIComponent(bounty)+'&from=0x0'}).then(function(r){return r.json()}).then(function(d){if(d.reportId){qs('#reportBody').value='';qs('#bountyWei').value='';refreshReports();refreshStats()}if(d.error)alert(d.error)})};qs('#refreshBtn').onclick=function(){refreshReports();refreshStats()};refreshReports();refreshStats();";
+    }
+
+    // One parsed request, as offsets into its connection's read buffer. Method and path are views;
+    // headers and query/form parameters are located and decoded only when a handler asks for them.
+    // The same instance is reused for every request on a connection, so it is valid until the next read.
+    private static final class Request {
+        final AsciiView method = new AsciiView();
+        final AsciiView path = new AsciiView();
+        byte[] buf;
+        int queryOff, queryLen, bodyOff, bodyLen;
+        int[] headers = new int[64];   // name offset, name length, value offset, value length
+        int headerCount;
+        boolean form;
+        boolean keepAlive;
+        long client;   // see clientKey
+        Route route;   // resolved by the reader once the request line is parsed; null if none matches
+
+        String header(String name) {
+            for (int i = 0; i < headerCount; i += 4) {
+                if (headers[i + 1] == name.length() && matchesIgnoreCase(buf, headers[i], name)) return new String(buf, headers[i + 2], headers[i + 3], StandardCharsets.ISO_8859_1);
+            }
+            return null;
+        }
+
+        // Form body first, then the query string; percent- and plus-decoded as UTF-8.
+        String param(String name) {
+            long at = locate(name);
+            return at < 0 ? null : decode(buf, (int) (at >>> 32), (int) at);
+        }
+
+        // The parameter as a decimal int; def when absent, malformed or out of range.
+        int intParam(String name, int def) {
+            long v = longParam(name, Long.MIN_VALUE);
+            return v == Long.MIN_VALUE || v != (int) v ? def : (int) v;
+        }
+
+        long longParam(String name, long def) {
+            long at = locate(name);
+            if (at < 0) return def;
+            int off = (int) (at >>> 32), len = (int) at;
+            boolean neg = len > 0 && buf[off] == '-';
+            int i = neg ? 1 : 0;
+            if (i == len || len - i > 18) return def;
+            long v = 0;
+            for (; i < len; i++) {
+                int d = buf[off + i] - '0';
+                if (d < 0 || d > 9) return def;
+                v = v * 10 + d;
+            }
+            return neg ? -v : v;
+        }
+
+        String body() { return bodyLen == 0 ? "" : new String(buf, bodyOff, bodyLen, StandardCharsets.UTF_8); }
+
+        // Report ids from every ids (comma- or space-separated) and reportId parameter, form body then
+        // query; collection stops once the list is longer than a batch may be.
+        List<String> idList() {
+            List<String> out = new ArrayList<>();
+            if (form) ids(bodyOff, bodyLen, out);
+            ids(queryOff, queryLen, out);
+            return out;
+        }
+
+        private void ids(int off, int len, List<String> out) {
+            int end = off + len;
+            for (int i = off; i < end && out.size() <= MAX_BATCH_ITEMS; ) {
+                int amp = i;
+                while (amp < end && buf[amp] != '&') amp++;
+                int eq = i;
+                while (eq < amp && buf[eq] != '=') eq++;
+                int v = Math.min(eq + 1, amp);
+                boolean list = eq - i == 3 && matches(buf, i, "ids");
+                if (list || eq - i == 8 && matches(buf, i, JsonKeys.REPORT_ID)) {
+                    String all = decode(buf, v, amp - v);
+                    for (int s = 0; s < all.length() && out.size() <= MAX_BATCH_ITEMS; ) {
+                        int e = s;
+                        while (e < all.length() && !(list && all.charAt(e) == ',') && !Character.isWhitespace(all.charAt(e))) e++;
+                        if (e > s) out.add(all.substring(s, e));
+                        s = e + 1;
+                    }
+                }
+                i = amp + 1;
+            }
+        }
+
+        // Path and query as sent; the query follows the path in the buffer.
+        String target() {
+            int end = queryLen > 0 ? queryOff + queryLen : path.off + path.len;
+            return new String(buf, path.off, end - path.off, StandardCharsets.ISO_8859_1);
+        }
+
+        private long locate(String name) {
+            long at = form ? find(buf, bodyOff, bodyLen, name) : -1;
+            return at >= 0 ? at : find(buf, queryOff, queryLen, name);
+        }
+
+        // Offset and length of the value of name in an a=1&b=2 region, packed high/low; -1 if absent.
+        private static long find(byte[] b, int off, int len, String name) {
+            int end = off + len;
+            for (int i = off; i < end; ) {
+                int amp = i;
+                while (amp < end && b[amp] != '&') amp++;
+                int eq = i;
+                while (eq < amp && b[eq] != '=') eq++;
+                if (eq - i == name.length() && matches(b, i, name)) {
+                    int v = Math.min(eq + 1, amp);
+                    return (long) v << 32 | (amp - v);
+                }
+                i = amp + 1;
+            }
+            return -1;
+        }
+
+        private static String decode(byte[] b, int off, int len) {
+            int i = off, end = off + len;
+            while (i < end && b[i] != '%' && b[i] != '+') i++;
+            if (i == end) return new String(b, off, len, StandardCharsets.UTF_8);
+            byte[] out = new byte[len];
+            int n = 0;
+            for (i = off; i < end; i++) {
+                byte c = b[i];
+                if (c == '+') c = ' ';
+                else if (c == '%' && i + 2 < end && hex(b[i + 1]) >= 0 && hex(b[i + 2]) >= 0) {
+                    c = (byte) (hex(b[i + 1]) << 4 | hex(b[i + 2]));
+                    i += 2;
+                }
+                out[n++] = c;
+            }
+            return new String(out, 0, n, StandardCharsets.UTF_8);
+        }
+
+        static int hex(byte c) {
+            if (c >= '0' && c <= '9') return c - '0';
+            if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+            if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+            return -1;
+        }
+
+        static boolean matches(byte[] b, int off, String s) {
+            for (int i = 0; i < s.length(); i++) if (b[off + i] != s.charAt(i)) return false;
+            return true;
+        }
+
+        static boolean matchesIgnoreCase(byte[] b, int off, String s) {
+            for (int i = 0; i < s.length(); i++) if ((b[off + i] | 0x20) != (s.charAt(i) | 0x20)) return false;
+            return true;
+        }
+    }
+
+    // ASCII bytes in a request buffer seen as a CharSequence; compares against constants without copying.
+    private static final class AsciiView implements CharSequence {
+        private byte[] b;
+        private int off, len;
+
+        void set(byte[] b, int off, int len) { this.b = b; this.off = off; this.len = len; }
+
+        boolean is(String s) { return len == s.length() && Request.matches(b, off, s); }
+        boolean startsWith(String s) { return len >= s.length() && Request.matches(b, off, s); }
+        boolean endsWith(String s) { return len >= s.length() && Request.matches(b, off + len - s.length(), s); }
+
+        @Override public int length() { return len; }
+        @Override public char charAt(int i) { return (char) (b[off + i] & 0xff); }
+        @Override public CharSequence subSequence(int from, int to) { return toString().substring(from, to); }
+        @Override public String toString() { return new String(b, off, len, StandardCharsets.ISO_8859_1); }
+    }
+
+    // Rejects a request at the protocol level; the connection answers with status and closes.
+    private static final class HttpException extends IOException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+        HttpException(int status, String message) { super(message); this.status = status; }
+    }
+
+    // Incremental parser over one growable per-connection buffer. The blocking front ends let it fill
+    // itself from the socket; the NIO reactor appends what it reads and polls. Exactly the declared body
+    // is taken (Content-Length, or chunked and de-chunked in place), so bytes of a pipelined request
+    // stay buffered behind it. The header block and body are bounded, so the buffer is too; the body
+    // bound is the resolved route's, so only the batch endpoints themselves get the larger one.
+    private static final class RequestReader {
+        private static final int INITIAL_BYTES = 4 << 10;
+        private static final int MAX_BUFFER_BYTES = MAX_HEADER_BYTES + MAX_BATCH_BODY + MAX_CHUNK_OVERHEAD;
+        private static final byte[] HTTP_10 = "HTTP/1.0".getBytes(StandardCharsets.US_ASCII);
+
+        private final InputStream in;
+        private final RouteTable routes;
+        private final Request req = new Request();
+        private byte[] buf = new byte[INITIAL_BYTES];
+        private int start, end, scanned;
+
+        RequestReader(InputStream in, long client, RouteTable routes) {
+            this.in = in;
+            this.routes = routes;
+            req.client = client;
+        }
+
+        int buffered() { return end - start; }
+
+        // Blocks until a byte is buffered; false at end of stream.
+        boolean await() throws IOException { return buffered() > 0 || fill(); }
+
+        // The next complete request, or null if the stream ends cleanly between requests.
+        Request next() throws IOException {
+            while (!parse()) {
+                if (!fill()) {
+                    if (buffered() == 0) return null;
+                    throw new EOFException();
+                }
+            }
+            return req;
+        }
+
+        void append(ByteBuffer src) throws HttpException {
+            int n = src.remaining();
+            reserve(n);
+            src.get(buf, end, n);
+            end += n;
+        }
+
+        // The buffered request if it is complete, else null.
+        Request poll() throws IOException { return parse() ? req : null; }
+
+        private boolean fill() throws IOException {
+            reserve(1);
+            int n = in.read(buf, end, buf.length - end);
+            if (n < 0) return false;
+            end += n;
+            return true;
+        }
+
+        // Makes room for n more bytes: compacts the unread bytes to the front, then grows if still short.
+        // Only called between requests, so no live Request points into the bytes that move.
+        private void reserve(int n) throws HttpException {
+            if (buf.length - end >= n) return;
+            int rest = end - start;
+            if (rest == 0 && buf.length > INITIAL_BYTES && n <= INITIAL_BYTES) buf = new byte[INITIAL_BYTES];
+            else System.arraycopy(buf, start, buf, 0, rest);
+            scanned -= start;
+            start = 0;
+            end = rest;
+            if (buf.length - end >= n) return;
+            int need = end + n;
+            if (need > MAX_BUFFER_BYTES) throw new HttpException(HttpStatus.PAYLOAD_TOO_LARGE, "request too large");
+            buf = Arrays.copyOf(buf, Math.max(need, Math.min(buf.length * 2, MAX_BUFFER_BYTES)));
+        }
+
+        private boolean parse() throws IOException {
+            byte[] b = buf;
+            int s = start, e = end;
+            while (s < e && (b[s] == '\r' || b[s] == '\n')) s++;   // stray CRLF between requests
+            start = s;
+            int h = -1;
+            for (int i = Math.max(s, scanned); i < e; i++) {
+                if (b[i] != '\n') continue;
+                int p = i - 1;
+                if (p >= s && b[p] == '\r') p--;
+                if (p >= s && b[p] == '\n') { h = i + 1; break; }
+            }
+            if (h < 0) {
+                scanned = e;
+                if (e - s > MAX_HEADER_BYTES) throw new HttpException(HttpStatus.PAYLOAD_TOO_LARGE, "header too large");
+                return false;
+            }
+            if (h - s > MAX_HEADER_BYTES) throw new HttpException(HttpStatus.PAYLOAD_TOO_LARGE, "header too large");
+            Request r = req;
+            r.buf = b;
+            r.headerCount = 0;
+            int eol = lineEnd(b, s, h);
+            int sp1 = indexOf(b, (byte) ' ', s, eol), sp2 = sp1 < 0 ? -1 : indexOf(b, (byte) ' ', sp1 + 1, eol);
+            if (sp1 <= s || sp2 < 0) throw new HttpException(HttpStatus.BAD_REQUEST, "bad request line");
+            r.method.set(b, s, sp1 - s);
+            int q = indexOf(b, (byte) '?', sp1 + 1, sp2);
+            r.path.set(b, sp1 + 1, (q < 0 ? sp2 : q) - sp1 - 1);
+            r.queryOff = q < 0 ? sp2 : q + 1;
+            r.queryLen = q < 0 ? 0 : sp2 - q - 1;
+            boolean http10 = eol - sp2 - 1 == HTTP_10.length && Arrays.equals(b, sp2 + 1, eol, HTTP_10, 0, HTTP_10.length);
+            long length = 0;
+            boolean chunked = false, close = false, open = false, typed = false, formType = false;
+            for (int line = next(b, s, h); line < h; line = next(b, line, h)) {
+                int le = lineEnd(b, line, h);
+                if (le == line) break;
+                int colon = indexOf(b, (byte) ':', line, le);
+                if (colon <= line) continue;
+                int ne = colon;
+                while (ne > line && b[ne - 1] == ' ') ne--;
+                int vs = colon + 1, ve = le;
+                while (vs < ve && (b[vs] == ' ' || b[vs] == '\t')) vs++;
+                while (ve > vs && (b[ve - 1] == ' ' || b[ve - 1] == '\t')) ve--;
+                if (r.headerCount == r.headers.length) r.headers = Arrays.copyOf(r.headers, r.headers.length * 2);
+                int[] hs = r.headers;
+                hs[r.headerCount++] = line; hs[r.headerCount++] = ne - line; hs[r.headerCount++] = vs; hs[r.headerCount++] = ve - vs;
+                int nl = ne - line, vl = ve - vs;
+                if (nl == 14 && Request.matchesIgnoreCase(b, line, "content-length")) {
+                    length = 0;
+                    if (vl == 0 || vl > 10) throw new HttpException(HttpStatus.BAD_REQUEST, "bad Content-Length");
+                    for (int i = vs; i < ve; i++) {
+                        int d = b[i] - '0';
+                        if (d < 0 || d > 9) throw new HttpException(HttpStatus.BAD_REQUEST, "bad Content-Length");
+                        length = length * 10 + d;
+                    }
+                } else if (nl == 17 && Request.matchesIgnoreCase(b, line, "transfer-encoding")) {
+                    chunked = vl >= 7 && Request.matchesIgnoreCase(b, ve - 7, "chunked");
+                } else if (nl == 10 && Request.matchesIgnoreCase(b, line, "connection")) {
+                    close = vl == 5 && Request.matchesIgnoreCase(b, vs, "close");
+                    open = vl == 10 && Request.matchesIgnoreCase(b, vs, "keep-alive");
+                } else if (nl == 12 && Request.matchesIgnoreCase(b, line, "content-type")) {
+                    typed = true;
+                    formType = vl >= 33 && Request.matchesIgnoreCase(b, vs, "application/x-www-form-urlencoded");
+                }
+            }
+            scanned = h - 1;
+            r.route = routes.find(r.path);
+            int limit = r.route == null ? MAX_REQUEST_BODY : r.route.maxBody;
+            int done;
+            if (chunked) {
+                done = dechunk(b, h, e, limit);
+                if (done < 0) return false;
+            } else {
+                if (length > limit) throw new HttpException(HttpStatus.PAYLOAD_TOO_LARGE, "body too large");
+                if (h + length > e) return false;
+                r.bodyLen = (int) length;
+                done = h + (int) length;
+            }
+            r.bodyOff = h;
+            r.form = r.bodyLen > 0 && (formType || !typed);
+            r.keepAlive = http10 ? open : !close;
+            start = scanned = done;
+            return true;
+        }
+
+        // Validates a whole chunked body starting at from, then packs its data down to from in place.
+        // Returns the end of the message, or -1 if more bytes are needed; sets the request body length.
+        private int dechunk(byte[] b, int from, int e, int limit) throws HttpException {
+            int p = from;
+            long total = 0;
+            while (true) {
+                int le = indexOf(b, (byte) '\n', p, e);
+                if (le < 0) return overhead(p, e);
+                int size = chunkSize(b, p, le);
+                p = le + 1;
+                if (size == 0) break;
+                total += size;
+                if (total > limit) throw new HttpException(HttpStatus.PAYLOAD_TOO_LARGE, "body too large");
+                int dataEnd = p + size;
+                int crlf = dataEnd < e && b[dataEnd] == '\r' ? dataEnd + 1 : dataEnd;
+                if (crlf >= e) return -1;
+                if (b[crlf] != '\n') throw new HttpException(HttpStatus.BAD_REQUEST, "bad chunk");
+                p = crlf + 1;
+            }
+            while (true) {   // trailers, ignored
+                int le = indexOf(b, (byte) '\n', p, e);
+                if (le < 0) return overhead(p, e);
+                boolean empty = lineEnd(b, p, le + 1) == p;
+                p = le + 1;
+                if (empty) break;
+            }
+            int out = from;
+            for (int c = from; ; ) {
+                int le = indexOf(b, (byte) '\n', c, p);
+                int size = chunkSize(b, c, le);
+                if (size == 0) break;
+                System.arraycopy(b, le + 1, b, out, size);
+                out += size;
+                c = le + 1 + size;
+                if (b[c] == '\r') c++;
+                c++;
+            }
+            req.bodyLen = out - from;
+            return p;
+        }
+
+        private static int overhead(int p, int e) throws HttpException {
+            if (e - p > MAX_CHUNK_OVERHEAD) throw new HttpException(HttpStatus.BAD_REQUEST, "bad chunk");
+            return -1;
+        }
+
+        // Hex size at the start of a chunk line, ignoring extensions after ';'.
+        private static int chunkSize(byte[] b, int from, int le) throws HttpException {
+            int size = 0, digits = 0;
+            for (int i = from; i < le; i++) {
+                int d = Request.hex(b[i]);
+                if (d < 0) {
+                    if (b[i] == ';' || b[i] == '\r' || b[i] == ' ') break;
+                    throw new HttpException(HttpStatus.BAD_REQUEST, "bad chunk size");
+                }
+                if (++digits > 7) throw new HttpException(HttpStatus.PAYLOAD_TOO_LARGE, "chunk too large");
+                size = size << 4 | d;
+            }
+            if (digits == 0) throw new HttpException(HttpStatus.BAD_REQUEST, "bad chunk size");
+            return size;
+        }
+
+        private static int indexOf(byte[] b, byte c, int from, int to) {
+            for (int i = from; i < to; i++) if (b[i] == c) return i;
+            return -1;
+        }
+
+        // End of the line starting at from, excluding CR LF.
+        private static int lineEnd(byte[] b, int from, int limit) {
+            int i = from;
+            while (i < limit && b[i] != '\n') i++;
+            return i > from && b[i - 1] == '\r' ? i - 1 : i;
+        }
+
+        private static int next(byte[] b, int from, int limit) {
+            int i = indexOf(b, (byte) '\n', from, limit);
+            return i < 0 ? limit : i + 1;
+        }
+    }
+
+    // Status, content type and body; the connection layer picks the Connection header when it writes.
+    private static final class Response {
+        final int status;
+        final String contentType;
+        final byte[] body;
+        final int offset;
+        final int length;
+        final String headers;   // extra header lines, each ending in CRLF
+
+        Response(int status, String contentType, byte[] body) { this(status, contentType, body, ""); }
+
+        Response(int status, String contentType, byte[] body, String headers) { this(status, contentType, body, 0, body.length, headers); }
+
+        Response(int status, String contentType, byte[] body, int offset, int length, String headers) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+            this.offset = offset;
+            this.length = length;
+            this.headers = headers;
+        }
+
+        // A JsonWriter body has room in front of it: the head is written there and the reply leaves as
+        // one slice. Other bodies go out after a separately built head.
+        void writeTo(OutputStream out, boolean keepAlive) throws IOException {
+            if (offset >= headBound()) {
+                int n = headInPlace(keepAlive);
+                out.write(body, offset - n, n + length);
+            } else {
+                out.write(headBytes(keepAlive));
+                out.write(body, offset, length);
+            }
+        }
+
+        byte[] toBytes(boolean keepAlive) {
+            if (offset >= headBound()) {
+                int n = headInPlace(keepAlive);
+                return Arrays.copyOfRange(body, offset - n, offset + length);
+            }
+            byte[] head = headBytes(keepAlive);
+            byte[] out = Arrays.copyOf(head, head.length + length);
+            System.arraycopy(body, offset, out, head.length, length);
+            return out;
+        }
+
+        private int headBound() { return 128 + contentType.length() + headers.length(); }
+
+        private int headInPlace(boolean keepAlive) {
+            int n = head(body, 0, keepAlive);
+            System.arraycopy(body, 0, body, offset - n, n);
+            return n;
+        }
+
+        private byte[] headBytes(boolean keepAlive) {
+            byte[] b = new byte[headBound()];
+            return Arrays.copyOf(b, head(b, 0, keepAlive));
+        }
+
+        private int head(byte[] b, int p, boolean keepAlive) {
+            p = ascii(b, p, "HTTP/1.1 ");
+            p = ascii(b, p, Integer.toString(status));
+            p = ascii(b, p, " ");
+            p = ascii(b, p, HttpStatus.reason(status));
+            p = ascii(b, p, "\r\n");
+            if (status != HttpStatus.NOT_MODIFIED) {
+                p = ascii(b, p, "Content-Type: ");
+                p = ascii(b, p, contentType);
+                p = ascii(b, p, "\r\nContent-Length: ");
+                p = ascii(b, p, Integer.toString(length));
+                p = ascii(b, p, "\r\n");
+            }
+            p = ascii(b, p, headers);
+            return ascii(b, p, keepAlive ? "Connection: keep-alive\r\n\r\n" : "Connection: close\r\n\r\n");
+        }
+
+        private static int ascii(byte[] b, int p, String s) {
+            for (int i = 0; i < s.length(); i++) b[p++] = (byte) s.charAt(i);
+            return p;
+        }
+    }
+
+    // Token buckets keyed by a long (client address, hashed from-address) spread over lock stripes, so
+    // requests for different keys rarely contend. A bucket idle long enough to have refilled is the
+    // same as no bucket, so a stripe drops those when a new key arrives, at most once a second unless
+    // it is full. A stripe still full after that admits new keys untracked rather than grow unbounded.
+    private static final class RateLimiter {
+        private static final int STRIPES = 64;
+        private static final int STRIPE_KEYS = 4096;
+        private static final long SWEEP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private final double perNano;
+        private final double burst;
+        private final long idleNanos;
+        private final Stripe[] stripes = new Stripe[STRIPES];
+        final LongAdder throttled = new LongAdder();
+
+        private static final class Stripe {
+            final HashMap<Long, Bucket> buckets = new HashMap<>();
+            long lastSweep = System.nanoTime();
+        }
+
+        private static final class Bucket {
+            double tokens;
+            long at;
+
+            Bucket(double tokens, long at) {
+                this.tokens = tokens;
+                this.at = at;
+            }
+        }
+
+        RateLimiter(double perSecond, double burst) {
+            this.perNano = perSecond / 1e9;
+            this.burst = Math.max(1, burst);
+            this.idleNanos = (long) (this.burst / perNano);
+            for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+        }
+
+        // 0 if a token was taken, otherwise the nanoseconds until one will be available.
+        long acquire(long key) {
+            long now = System.nanoTime();
+            Stripe s = stripe(key);
+            synchronized (s) {
+                Bucket b = refill(s, key, now);
+                if (b == null) return 0;
+                if (b.tokens >= 1) {
+                    b.tokens -= 1;
+                    return 0;
+                }
+                throttled.increment();
+                return Math.max(1, (long) ((1 - b.tokens) / perNano));
+            }
+        }
+
+        // Takes up to n tokens at once and returns how many it took; the rest count as throttled.
+        int acquire(long key, int n) {
+            long now = System.nanoTime();
+            Stripe s = stripe(key);
+            synchronized (s) {
+                Bucket b = refill(s, key, now);
+                if (b == null) return n;
+                int taken = (int) Math.min(n, Math.floor(b.tokens));
+                b.tokens -= taken;
+                throttled.add(n - taken);
+                return taken;
+            }
+        }
+
+        private Stripe stripe(long key) { return stripes[(int) (key * 0x9E3779B97F4A7C15L >>> 58)]; }
+
+        // The key's bucket topped up to now, or null if the stripe is full of live keys (not limited).
+        private Bucket refill(Stripe s, long key, long now) {
+            Bucket b = s.buckets.get(key);
+            if (b == null) {
+                if (now - s.lastSweep > SWEEP_NANOS || s.buckets.size() >= STRIPE_KEYS) {
+                    s.lastSweep = now;
+                    s.buckets.values().removeIf(old -> now - old.at > idleNanos);
+                }
+                if (s.buckets.size() >= STRIPE_KEYS) return null;
+                b = new Bucket(burst, now);
+                s.buckets.put(key, b);
+            } else {
+                b.tokens = Math.min(burst, b.tokens + (now - b.at) * perNano);
+                b.at = now;
+            }
+            return b;
+        }
+
+        // Case-insensitive 64-bit FNV-1a of a from-address.
+        static long addressKey(String address) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < address.length(); i++) h = (h ^ Character.toLowerCase(address.charAt(i))) * 0x100000001b3L;
+            return h;
+        }
+    }
+
+    private interface Handler {
+        Response handle(Request req);
+    }
+
+    // One endpoint: exact path, accepted methods, largest body, handler, and the counters /metrics reports.
+    private static final class Route {
+        static final int GET = 1;
+        static final int POST = 2;
+
+        final String path;
+        final int methods;
+        final int maxBody;
+        final Handler handler;
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        Route(String path, int methods, Handler handler) { this(path, methods, MAX_REQUEST_BODY, handler); }
+
+        Route(String path, int methods, int maxBody, Handler handler) {
+            this.path = path;
+            this.methods = methods;
+            this.maxBody = maxBody;
+            this.handler = handler;
+        }
+
+        boolean allows(AsciiView method) {
+            return (methods & GET) != 0 && method.is("GET") || (methods & POST) != 0 && method.is("POST");
+        }
+
+        String allowHeader() { return (methods & GET) != 0 ? (methods & POST) != 0 ? "GET, POST" : "GET" : "POST"; }
+
+        Response handle(Request req) {
+            long t0 = System.nanoTime();
+            Response r = handler.handle(req);
+            nanos.add(System.nanoTime() - t0);
+            requests.increment();
+            if (r.status != HttpStatus.OK && r.status != HttpStatus.NOT_MODIFIED) errors.increment();
+            return r;
+        }
+    }
+
+    // Exact-path routes in an open-addressed table at least twice the route count. A lookup hashes the
+    // path bytes once and compares against the one or two routes in its probe run.
+    private static final class RouteTable {
+        private final Route[] routes;
+        private final Route[] slots;
+        private final int mask;
+
+        RouteTable(Route... routes) {
+            this.routes = routes;
+            this.slots = new Route[Integer.highestOneBit(Math.max(1, routes.length)) << 2];
+            this.mask = slots.length - 1;
+            for (Route r : routes) {
+                int i = hash(r.path) & mask;
+                while (slots[i] != null) {
+                    if (slots[i].path.equals(r.path)) throw new IllegalArgumentException("duplicate route " + r.path);
+                    i = (i + 1) & mask;
+                }
+                slots[i] = r;
+            }
+        }
+
+        Route find(CharSequence path) {
+            for (int i = hash(path) & mask; slots[i] != null; i = (i + 1) & mask) {
+                if (slots[i].path.contentEquals(path)) return slots[i];
+            }
+            return null;
+        }
+
+        List<Route> all() { return Arrays.asList(routes); }
+
+        // FNV-1a over the characters (bytes, for an ASCII path).
+        private static int hash(CharSequence s) {
+            int h = 0x811c9dc5;
+            for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * 0x01000193;
+            return h ^ h >>> 16;
+        }
+    }
+
+    // Serialized GET responses keyed by path and query, each stamped with the ledger version it was
+    // built at. An entry older than the current version is rebuilt, never served. The ETag names the
+    // process and the version, so a client polling an unchanged ledger gets a 304 without any work.
+    // When full, entries from older versions are dropped; if none are, the new entry is not kept.
+    private static final class ResponseCache {
+        private static final byte[] EMPTY = new byte[0];
+        private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+        private final int maxEntries;
+        private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+        private static final class Entry {
+            final long version;
+            final String etag;
+            final Response ok;
+            final Response notModified;
+
+            Entry(long version, String etag, Response built) {
+                this.version = version;
+                this.etag = etag;
+                String headers = "ETag: " + etag + "\r\nCache-Control: no-cache\r\n";
+                this.ok = new Response(built.status, built.contentType, Arrays.copyOfRange(built.body, built.offset, built.offset + built.length), headers);
+                this.notModified = new Response(HttpStatus.NOT_MODIFIED, built.contentType, EMPTY, headers);
+            }
+        }
+
+        ResponseCache(int maxEntries) { this.maxEntries = maxEntries; }
+
+        // build runs only on a miss; anything but a 200 is returned as is and not cached.
+        Response serve(Request req, long version, java.util.function.Supplier<Response> build) {
+            String key = req.target();
+            Entry e = entries.get(key);
+            if (e == null || e.version != version) {
+                Response built = build.get();
+                if (built.status != HttpStatus.OK) return built;
+                e = new Entry(version, "\"" + epoch + "-" + Long.toString(version, 36) + "\"", built);
+                store(key, e);
+            }
+            String match = req.header("if-none-match");
+            return match != null && match.contains(e.etag) ? e.notModified : e.ok;
+        }
+
+        private void store(String key, Entry e) {
+            if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+                entries.values().removeIf(old -> old.version < e.version);
+                if (entries.size() >= maxEntries) return;
+            }
+            entries.merge(key, e, (old, fresh) -> fresh.version >= old.version ? fresh : old);
+        }
+    }
+
+    // Streaming JSON straight to UTF-8 bytes. Strings are escaped in the same pass that encodes them,
+    // and commas are placed by the writer. Room is left at the front of the buffer so Response can put
+    // the status line and headers directly before the body and the whole reply goes out in one write.
+    // Handlers take the calling thread's writer from local(); its buffer is reused by that thread's
+    // next response, so a Response built on it must be written or copied before then.
+    private static final class JsonWriter {
+        static final int HEAD_ROOM = 512;
+        private static final int INITIAL_BYTES = 8 << 10;
+        private static final int RETAIN_BYTES = 256 << 10;
+        private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        private static final ThreadLocal<JsonWriter> LOCAL = ThreadLocal.withInitial(JsonWriter::new);
+        private static final ThreadLocal<JsonWriter> SCRATCH = ThreadLocal.withInitial(JsonWriter::new);
+
+        byte[] buf = new byte[INITIAL_BYTES];
+        int pos = HEAD_ROOM;
+        private boolean comma;
+
+        static JsonWriter local() { return LOCAL.get().reset(); }
+
+        // A second per-thread writer for pieces built while local() is mid-response.
+        static JsonWriter scratch() { return SCRATCH.get().reset(); }
+
+        JsonWriter reset() {
+            if (buf.length > RETAIN_BYTES) buf = new byte[INITIAL_BYTES];
+            pos = HEAD_ROOM;
+            comma = false;
+            return this;
+        }
+
+        int length() { return pos - HEAD_ROOM; }
+
+        void writeTo(OutputStream out) throws IOException { out.write(buf, HEAD_ROOM, pos - HEAD_ROOM); }
+
+        byte[] toByteArray() { return Arrays.copyOfRange(buf, HEAD_ROOM, pos); }
+
+        Response response() { return new Response(HttpStatus.OK, ContentType.JSON_UTF8, buf, HEAD_ROOM, pos - HEAD_ROOM, ""); }
+
+        JsonWriter beginObject() { separate(); put('{'); comma = false; return this; }
+        JsonWriter endObject() { put('}'); comma = true; return this; }
+        JsonWriter beginArray() { separate(); put('['); comma = false; return this; }
+        JsonWriter endArray() { put(']'); comma = true; return this; }
+
+        // Keys are ASCII constants (JsonKeys) and are written as they are.
+        JsonWriter name(String key) {
+            separate();
+            ensure(key.length() + 3);
+            buf[pos++] = '"';
+            for (int i = 0; i < key.length(); i++) buf[pos++] = (byte) key.charAt(i);
+            buf[pos++] = '"';
+            buf[pos++] = ':';
+            comma = false;
+            return this;
+        }
+
+        JsonWriter value(String s) {
+            separate();
+            if (s == null) {
+                ascii("null");
+            } else {
+                put('"');
+                escaped(s);
+                put('"');
+            }
+            comma = true;
+            return this;
+        }
+
+        JsonWriter value(long v) {
+            separate();
+            ensure(20);
+            if (v < 0) {
+                if (v == Long.MIN_VALUE) { ascii("-9223372036854775808"); comma = true; return this; }
+                buf[pos++] = '-';
+                v = -v;
+            }
+            int digits = 1;
+            for (long t = v; t >= 10; t /= 10) digits++;
+            for (int i = pos + digits - 1; i >= pos; i--, v /= 10) buf[i] = (byte) ('0' + v % 10);
+            pos += digits;
+            comma = true;
+            return this;
+        }
+
+        JsonWriter value(boolean b) {
+            separate();
+            ascii(b ? "true" : "false");
+            comma = true;
+            return this;
+        }
+
+        // A report id in its CG-<hex> text form, without building the String.
+        JsonWriter reportId(long id) {
+            separate();
+            ensure(ReportIdGen.TEXT_LEN + 2);
+            buf[pos++] = '"';
+            ReportIdGen.formatTo(id, buf, pos);
+            pos += ReportIdGen.TEXT_LEN;
+            buf[pos++] = '"';
+            comma = true;
+            return this;
+        }
+
+        // Pre-encoded JSON, the first len bytes of json, written as one value.
+        JsonWriter fragment(byte[] json, int len) {
+            separate();
+            ensure(len);
+            System.arraycopy(json, 0, buf, pos, len);
+            pos += len;
+            comma = true;
+            return this;
+        }
+
+        private void separate() { if (comma) put(','); }
+
+        private void put(char c) {
+            ensure(1);
+            buf[pos++] = (byte) c;
+        }
+
+        private void ascii(String s) {
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) buf[pos++] = (byte) s.charAt(i);
+        }
+
+        // One pass: JSON escapes for quote, backslash and control characters, UTF-8 for the rest.
+        // An unpaired surrogate becomes '?', as String.getBytes would make it.
+        private void escaped(String s) {
+            int n = s.length();
+            ensure(n);
+            byte[] b = buf;
+            int p = pos;
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                    if (p == b.length) { pos = p; ensure(n - i + 8); b = buf; }
+                    b[p++] = (byte) c;
+                    continue;
+                }
+                if (b.length - p < 12) { pos = p; ensure(n - i + 12); b = buf; }
+                if (c == '"' || c == '\\') {
+                    b[p++] = '\\';
+                    b[p++] = (byte) c;
+                } else if (c < 0x20) {
+                    b[p++] = '\\';
+                    switch (c) {
+                        case '\n': b[p++] = 'n'; break;
+                        case '\r': b[p++] = 'r'; break;
+                        case '\t': b[p++] = 't'; break;
+                        case '\b': b[p++] = 'b'; break;
+                        case '\f': b[p++] = 'f'; break;
+                        default:
+                            b[p++] = 'u'; b[p++] = '0'; b[p++] = '0';
+                            b[p++] = HEX[c >> 4]; b[p++] = HEX[c & 15];
+                    }
+                } else if (c < 0x800) {
+                    b[p++] = (byte) (0xc0 | c >> 6);
+                    b[p++] = (byte) (0x80 | c & 0x3f);
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    b[p++] = (byte) (0xf0 | cp >> 18);
+                    b[p++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                    b[p++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                    b[p++] = (byte) (0x80 | cp & 0x3f);
+                } else if (Character.isSurrogate(c)) {
+                    b[p++] = '?';
+                } else {
+                    b[p++] = (byte) (0xe0 | c >> 12);
+                    b[p++] = (byte) (0x80 | c >> 6 & 0x3f);
+                    b[p++] = (byte) (0x80 | c & 0x3f);
+                }
+            }
+            pos = p;
+        }
+
+        private void ensure(int n) {
+            if (buf.length - pos < n) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+    }
+
+    // A page fixed at startup: its bytes, a gzipped copy and a strong ETag over the content. A hit
+    // costs a header compare and a copy; a browser revalidating with If-None-Match gets a bare 304.
+    private static final class StaticAsset {
+        final String contentType;
+        final String etag;
+        final byte[] plain;
+        final byte[] gzipped;
+        private final String headers;
+
+        StaticAsset(String contentType, String content) {
+            this.contentType = contentType;
+            this.plain = content.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(plain.length / 3 + 64);
+            try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+                gz.write(plain);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.gzipped = bytes.toByteArray();
+            byte[] digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256").digest(plain);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            StringBuilder tag = new StringBuilder("\"");
+            for (int i = 0; i < 12; i++) tag.append(Character.forDigit(digest[i] >> 4 & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+            this.etag = tag.append('"').toString();
+            this.headers = "ETag: " + etag + "\r\nCache-Control: no-cache\r\nVary: Accept-Encoding\r\n";
+        }
+
+        Response serve(Request req) {
+            String match = req.header("if-none-match");
+            if (match != null && (match.contains(etag) || match.trim().equals("*"))) return new Response(HttpStatus.NOT_MODIFIED, contentType, new byte[0], headers);
+            if (acceptsGzip(req.header("accept-encoding"))) return new Response(HttpStatus.OK, contentType, gzipped, headers + "Content-Encoding: gzip\r\n");
+            return new Response(HttpStatus.OK, contentType, plain, headers);
+        }
+
+        // True if gzip (or *) is listed without q=0.
+        static boolean acceptsGzip(String accept) {
+            if (accept == null) return false;
+            for (String coding : accept.split(",")) {
+                int semi = coding.indexOf(';');
+                String name = (semi < 0 ? coding : coding.substring(0, semi)).trim();
+                if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) continue;
+                String q = semi < 0 ? "" : coding.substring(semi + 1).replace(" ", "");
+                return !q.matches("(?i)q=0(\\.0*)?");
+            }
+            return false;
+        }
+    }
+
+    // --- Exceptions (unique codes) ---
+    public static final class CG_Exception extends RuntimeException {
+        private final String code;
+        public CG_Exception(String code) { super(code, null, false, false); this.code = code; }
+        public String getCode() { return code; }
+    }
+
+    private static final class CigilanteEngine {
+        private final WatchLedger ledger;
+
+        CigilanteEngine(WatchLedger ledger) { this.ledger = ledger; }
+
+        long submitReport(String body, String from, int bountyWei) throws CG_Exception {
+            if (body == null) body = "";
+            body = body.trim();
+            if (body.length() > MAX_REPORT_BODY_LEN) throw new CG_Exception("CG_ReportTooLong");
+            if (ledger.reportCount() >= ledger.capacity()) throw new CG_Exception("CG_ReportCapReached");
+            if (bountyWei < 0 || bountyWei > MAX_BOUNTY_WEI_SCALE) throw new CG_Exception("CG_BountyOutOfRange");
+            return ledger.appendReport(body, from, bountyWei);
+        }
+
+        // Items must already be validated; returns one id per item, -1 where the ledger was full.
+        long[] submitBatch(String[] bodies, String[] froms, int[] bounties, int n) throws CG_Exception {
+            return ledger.appendBatch(bodies, froms, bounties, n);
+        }
+
+        // Malformed ids get CG_InvalidReportId, as with a single claim, and are never looked up.
+        String[] claimBatch(List<String> reportIds, String claimer) {
+            long[] ids = parseIds(reportIds);
+            String[] codes = ledger.claimBatch(ids, ids.length, claimer != null ? claimer : Defaults.ZERO_ADDRESS);
+            for (int i = 0; i < ids.length; i++) if (ids[i] == WatchLedger.MALFORMED_ID) codes[i] = CG_ErrorCodes.INVALID_REPORT_ID;
+            return codes;
+        }
+
+        // One lookup per id in a single pass; null where an id names no report.
+        WatchReport[] getReportsById(List<String> reportIds) {
+            long[] ids = parseIds(reportIds);
+            WatchReport[] out = new WatchReport[ids.length];
+            for (int i = 0; i < ids.length; i++) out[i] = ledger.getById(ids[i]);
+            return out;
+        }
+
+        private long[] parseIds(List<String> reportIds) {
+            long[] ids = new long[reportIds.size()];
+            for (int i = 0; i < ids.length; i++) ids[i] = resolve(reportIds.get(i));
+            return ids;
+        }
+
+        // Packed "CG-" + 16 hex digits, or the older "CG-<millis>-<seq>" form for reports recovered from it.
+        // -1 if a well-formed id names no report, MALFORMED_ID if the text is neither form.
+        private long resolve(String reportId) {
+            long id = ReportIdGen.parse(reportId);
+            return id >= 0 ? id : ledger.legacyId(reportId);
+        }
+
+        // As resolve, but text of neither form is rejected before any lookup.
+        private long require(String reportId) throws CG_Exception {
+            long id = reportId == null ? WatchLedger.MALFORMED_ID : resolve(reportId.trim());
+            if (id == WatchLedger.MALFORMED_ID) throw new CG_Exception(CG_ErrorCodes.INVALID_REPORT_ID);
+            return id;
+        }
+
+        boolean isReportId(String reportId) { return resolve(reportId) != WatchLedger.MALFORMED_ID; }
+
+        void claimBounty(String reportId, String claimer) throws CG_Exception {
+            ledger.claim(require(reportId), claimer != null ? claimer : "0x0");
+        }
+
+        List<WatchReport> listReports(int offset, int limit) throws CG_Exception {
+            if (limit > BATCH_QUERY_LIMIT) throw new CG_Exception("CG_BatchTooLarge");
+            return ledger.list(offset, limit);
+        }
+
+        LedgerStats getStats() {
+            return ledger.stats();
+        }
+
+        long version() { return ledger.version(); }
+
+        WatchReport getReportById(String reportId) throws CG_Exception {
+            WatchReport r = ledger.getById(require(reportId));
+            if (r == null) throw new CG_Exception("CG_ReportNotFound");
+            return r;
+        }
+
+        List<WatchReport> listUnclaimed(int offset, int limit) throws CG_Exception {
+            if (limit > BATCH_QUERY_LIMIT) throw new CG_Exception("CG_BatchTooLarge");
+            return ledger.listUnclaimed(offset, limit);
+        }
+
+        List<WatchReport> listAfter(String cursor, int limit, boolean unclaimedOnly) throws CG_Exception {
+            if (limit > CURSOR_QUERY_LIMIT) throw new CG_Exception("CG_BatchTooLarge");
+            return ledger.listAfter(PageCursor.decode(cursor), limit, unclaimedOnly);
+        }
+    }
+
+    // Opaque keyset cursor: the id of the last report a page returned. Ids are time-ordered and a
+    // store never reuses or moves a slot, so a cursor names a fixed point that concurrent submits
+    // and claims cannot shift. An empty cursor starts from the beginning.
+    private static final class PageCursor {
+        static long decode(String cursor) throws CG_Exception {
+            if (cursor == null || cursor.isEmpty()) return -1;
+            try {
+                return Long.parseLong(cursor, 36);
+            } catch (NumberFormatException e) {
+                throw new CG_Exception("CG_InvalidCursor");
+            }
+        }
+
+        // A page that comes back empty hands the caller's cursor back, so tailing pollers keep their place.
+        static String next(List<WatchReport> page, String cursor) {
+            if (page.isEmpty()) return cursor != null ? cursor : "";
+            return Long.toString(page.get(page.size() - 1).getId(), 36);
+        }
+    }
+
+    // Claim outcome; a report's claimed flag and claimer are published together as one reference. A live
+    // claim is installed pending, journaled, then confirmed; readers treat a pending claim as absent.
+    private static final class ClaimState {
+        private final String by;
+        private final long claimedAtMillis;
+        private volatile boolean confirmed;
+
+        ClaimState(String by, long claimedAtMillis) {
+            this(by, claimedAtMillis, true);
+        }
+
+        private ClaimState(String by, long claimedAtMillis, boolean confirmed) {
+            this.by = by;
+            this.claimedAtMillis = claimedAtMillis;
+            this.confirmed = confirmed;
+        }
+
+        static ClaimState pending(String by, long claimedAtMillis) { return new ClaimState(by, claimedAtMillis, false); }
+
+        void confirm() { confirmed = true; }
+        boolean isConfirmed() { return confirmed; }
+
+        String getBy() { return by; }
+        long getClaimedAtMillis() { return claimedAtMillis; }
+    }
+
+    private static final class WatchReport {
+        private static final AtomicReferenceFieldUpdater<WatchReport, ClaimState> CLAIM =
+            AtomicReferenceFieldUpdater.newUpdater(WatchReport.class, ClaimState.class, "claim");
+        private static final AtomicReferenceFieldUpdater<WatchReport, ReportFragment> FRAGMENT =
+            AtomicReferenceFieldUpdater.newUpdater(WatchReport.class, ReportFragment.class, "fragment");
+
+        private final long id;
+        private final String body;
+        private final int bountyWei;
+        private final String from;
+        private volatile ClaimState claim;
+        private volatile ReportFragment fragment;
+
+        WatchReport(long id, String body, int bountyWei, String from) {
+            this.id = id;
+            this.body = body;
+            this.bountyWei = bountyWei;
+            this.from = from;
+        }
+
+        long getId() { return id; }
+        String getBody() { return body; }
+        int getBountyWei() { return bountyWei; }
+        String getFrom() { return from; }
+        boolean isClaimed() { return getClaimState() != null; }
+        String getClaimedBy() { ClaimState c = getClaimState(); return c != null ? c.getBy() : null; }
+        ClaimState getClaimState() { ClaimState c = claim; return c != null && c.isConfirmed() ? c : null; }
+
+        // Exactly one caller wins, pending or not; losers never block.
+        boolean tryClaim(ClaimState state) {
+            return claim == null && CLAIM.compareAndSet(this, null, state);
+        }
+
+        // Backs out a claim whose journal write failed, before it was acknowledged.
+        void releaseClaim(ClaimState state) {
+            CLAIM.compareAndSet(this, state, null);
+        }
+
+        ReportFragment fragment() { return fragment; }
+        boolean keepFragment(ReportFragment f) { return fragment == null && FRAGMENT.compareAndSet(this, null, f); }
+        ReportFragment dropFragment() { return FRAGMENT.getAndSet(this, null); }
+    }
+
+    // Append-only log of fixed-size segments. A slot is reserved with one CAS and published with a
+    // volatile store; readers index straight into the segment and never copy or lock. A reserved slot
+    // reads as null until its writer publishes it. The reservation word also carries the id second,
+    // which never goes backwards within a store, so ids from one store sort in slot order. A slot whose
+    // writer failed is filled with DEAD and never handed out again: its journal record may be on disk,
+    // and a second report under the same id would lose one of the two on replay. The mark is the
+    // published prefix: every slot below it holds a report or DEAD.
+    private static final class ReportStore {
+        private static final int SEGMENT_BITS = 12;
+        private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+        private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+        private static final WatchReport DEAD = new WatchReport(-1, "", 0, "");
+
+        private final int capacity;
+        private final AtomicReferenceArray<AtomicReferenceArray<WatchReport>> segments;
+        private final AtomicLong tail = new AtomicLong(0);
+        private final AtomicLong mark = new AtomicLong(0);   // (second of the last report below it) << 32 | slot
+        private final AtomicInteger dead = new AtomicInteger();
+
+        ReportStore(int capacity) {
+            this.capacity = capacity;
+            this.segments = new AtomicReferenceArray<>((capacity + SEGMENT_MASK) >>> SEGMENT_BITS);
+        }
+
+        // Returns (second << 32 | slot), or -1 when the store is full.
+        long reserve() { return reserve(1); }
+
+        // Reserves up to n consecutive slots with one CAS; the count is min(n, capacity - slot). The clock
+        // is read inside the loop, so the second is never older than the one horizon() sealed.
+        long reserve(int n) {
+            long cur, second;
+            int slot;
+            do {
+                cur = tail.get();
+                slot = (int) cur;
+                if (slot >= capacity) return -1;
+                second = Math.max(ReportIdGen.nowSecond(), cur >>> 32);
+            } while (!tail.compareAndSet(cur, second << 32 | (slot + Math.min(n, capacity - slot))));
+            return second << 32 | slot;
+        }
+
+        void publish(int slot, WatchReport r) {
+            int si = slot >>> SEGMENT_BITS;
+            AtomicReferenceArray<WatchReport> seg = segments.get(si);
+            if (seg == null) {
+                seg = new AtomicReferenceArray<>(SEGMENT_SIZE);
+                if (!segments.compareAndSet(si, null, seg)) seg = segments.get(si);
+            }
+            seg.set(slot & SEGMENT_MASK, r);
+        }
+
+        // Backs out n reserved slots from slot on: they read as null and are not counted.
+        void abandon(int slot, int n) {
+            for (int k = 0; k < n; k++) publish(slot + k, DEAD);
+            dead.addAndGet(n);
+        }
+
+        // After recovery: slots below the tail that no record filled were reserved by writes lost in a
+        // crash; they are marked dead. Single-threaded.
+        int seal() {
+            int sealed = 0, n = size();
+            long second = 0;
+            for (int slot = 0; slot < n; slot++) {
+                WatchReport r = raw(slot);
+                if (r != null) {
+                    if (r != DEAD) second = ReportIdGen.second(r.getId());
+                    continue;
+                }
+                publish(slot, DEAD);
+                sealed++;
+            }
+            dead.addAndGet(sealed);
+            mark.set(second << 32 | n);
+            return sealed;
+        }
+
+        // Length of the published prefix, advanced past whatever writers have published since.
+        int published() { return (int) advanceMark(size()); }
+
+        // Lowest id a report not yet readable here can still get; below it the store is final. The
+        // reservation second is first moved up to now, so an idle store does not hold the bound back.
+        long horizon(int index) {
+            long t = tail.get(), now = ReportIdGen.nowSecond();
+            while ((t >>> 32) < now) {
+                long sealed = now << 32 | (t & 0xFFFFFFFFL);
+                if (tail.compareAndSet(t, sealed)) {
+                    t = sealed;
+                    break;
+                }
+                t = tail.get();
+            }
+            int size = (int) t;
+            long m = advanceMark(size);
+            if ((int) m < size) return ReportIdGen.pack(m >>> 32, index, (int) m);
+            return size >= capacity ? Long.MAX_VALUE : ReportIdGen.pack(t >>> 32, index, size);
+        }
+
+        // Any later report in slot w has a second no older than the last report below w.
+        private long advanceMark(int size) {
+            long m = mark.get();
+            int w = (int) m;
+            long second = m >>> 32;
+            for (WatchReport r; w < size && (r = raw(w)) != null; w++) {
+                if (r != DEAD) second = ReportIdGen.second(r.getId());
+            }
+            if (w == (int) m) return m;
+            return mark.accumulateAndGet(second << 32 | w, (a, b) -> (int) a >= (int) b ? a : b);
+        }
+
+        private WatchReport raw(int slot) {
+            AtomicReferenceArray<WatchReport> seg = segments.get(slot >>> SEGMENT_BITS);
+            return seg == null ? null : seg.get(slot & SEGMENT_MASK);
+        }
+
+        // Recovery path: places a report at its original slot, in any order.
+        boolean restore(int slot, WatchReport r) {
+            if (slot < 0 || slot >= capacity) return false;
+            publish(slot, r);
+            cover(ReportIdGen.second(r.getId()), slot);
+            return true;
+        }
+
+        // Recovery path: marks an abandoned slot dead, over whatever replay had put there, and returns
+        // the report it replaced.
+        WatchReport bury(int slot, long second) {
+            if (slot < 0 || slot >= capacity) return null;
+            WatchReport r = raw(slot);
+            if (r == DEAD) return null;
+            publish(slot, DEAD);
+            dead.incrementAndGet();
+            cover(second, slot);
+            return r;
+        }
+
+        // True once a slot holds a report or DEAD.
+        boolean taken(int slot) { return slot >= 0 && slot < capacity && raw(slot) != null; }
+
+        private void cover(long second, int slot) {
+            tail.accumulateAndGet(second << 32 | (slot + 1), (a, b) -> Math.max(a >>> 32, b >>> 32) << 32 | Math.max((int) a, (int) b));
+        }
+
+        WatchReport get(int slot) {
+            if (slot < 0 || slot >= capacity) return null;
+            WatchReport r = raw(slot);
+            return r == DEAD ? null : r;
+        }
+
+        // Slots reserved so far, dead ones included; count() is the number of reports.
+        int size() { return (int) tail.get(); }
+        int count() { return size() - dead.get(); }
+        int capacity() { return capacity; }
+    }
+
+    // Bitmap of unclaimed slots with a Fenwick tree of per-word popcounts on top, so the k-th unclaimed
+    // slot is found in O(log n) and paging walks set bits from there. Bits and counts are updated with
+    // atomics; a reader racing a claim may see a stale bit and must re-check the report.
+    private static final class UnclaimedIndex {
+        private final AtomicLongArray words;
+        private final AtomicIntegerArray tree;
+        private final int wordCount;
+
+        UnclaimedIndex(int capacity) {
+            this.wordCount = (capacity + 63) >>> 6;
+            this.words = new AtomicLongArray(wordCount);
+            this.tree = new AtomicIntegerArray(wordCount + 1);
+        }
+
+        void mark(int slot) { flip(slot, true); }
+        void clear(int slot) { flip(slot, false); }
+
+        private void flip(int slot, boolean set) {
+            int w = slot >>> 6;
+            long bit = 1L << (slot & 63);
+            long prev;
+            do {
+                prev = words.get(w);
+                if (((prev & bit) != 0) == set) return;
+            } while (!words.compareAndSet(w, prev, set ? prev | bit : prev & ~bit));
+            for (int i = w + 1; i <= wordCount; i += i & -i) tree.addAndGet(i, set ? 1 : -1);
+        }
+
+        // Number of set bits in words [0, w).
+        private int rankOfWord(int w) {
+            int n = 0;
+            for (int i = w; i > 0; i -= i & -i) n += tree.get(i);
+            return n;
+        }
+
+        // Number of unclaimed slots below slot.
+        int rank(int slot) {
+            int w = slot >>> 6;
+            if (w >= wordCount) return rankOfWord(wordCount);
+            return rankOfWord(w) + Long.bitCount(words.get(w) & ((1L << (slot & 63)) - 1));
+        }
+
+        // Slot of the k-th (0-based) unclaimed report, or -1.
+        int select(int k) {
+            if (k < 0) return -1;
+            int pos = 0, rem = k;
+            for (int step = Integer.highestOneBit(wordCount); step > 0; step >>>= 1) {
+                int next = pos + step;
+                if (next <= wordCount) {
+                    int c = tree.get(next);
+                    if (c <= rem) { pos = next; rem -= c; }
+                }
+            }
+            if (pos >= wordCount) return -1;
+            long bits = words.get(pos);
+            if (Long.bitCount(bits) <= rem) return next((pos + 1) << 6);
+            for (int i = 0; i < rem; i++) bits &= bits - 1;
+            return (pos << 6) + Long.numberOfTrailingZeros(bits);
+        }
+
+        // First unclaimed slot at or after {@code from}, or -1.
+        int next(int from) {
+            int w = from >>> 6;
+            if (w >= wordCount) return -1;
+            long bits = words.get(w) & (-1L << (from & 63));
+            if (bits != 0) return (w << 6) + Long.numberOfTrailingZeros(bits);
+            return w + 1 < wordCount ? select(rankOfWord(w + 1)) : -1;
+        }
+    }
+
+    // One hash partition of the ledger with its own store, unclaimed index and counters. The two
+    // counters sit a cache line apart so shards updated from different cores never share one.
+    private static final class LedgerShard {
+        private static final int PAD = 8;
+        private static final int BOUNTY = PAD;
+        private static final int CLAIMED = 2 * PAD;
+        private static final int VERSION = 3 * PAD;
+
+        final int index;
+        final ReportStore store;
+        final UnclaimedIndex unclaimed;
+        private final AtomicLongArray counters = new AtomicLongArray(4 * PAD);
+
+        LedgerShard(int index, int capacity) {
+            this.index = index;
+            this.store = new ReportStore(capacity);
+            this.unclaimed = new UnclaimedIndex(capacity);
+        }
+
+        // First slot whose id is greater than afterId (ids ascend with slot within a store). Slots that
+        // are reserved but not yet published read as null and are skipped over.
+        int slotAfter(long afterId) {
+            if (afterId < 0) return 0;
+            if (ReportIdGen.shard(afterId) == index) {
+                WatchReport own = store.get(ReportIdGen.slot(afterId));
+                if (own != null && own.getId() == afterId) return ReportIdGen.slot(afterId) + 1;
+            }
+            int lo = 0, hi = store.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int j = mid;
+                WatchReport r = null;
+                while (j < hi && (r = store.get(j)) == null) j++;
+                if (r == null || r.getId() > afterId) hi = mid;
+                else lo = j + 1;
+            }
+            return lo;
+        }
+
+        // Reports (unclaimed ones only, if asked) with an id no greater than x; unpublished slots count.
+        int countUpTo(long x, boolean unclaimedOnly) {
+            int slot = slotAfter(x);
+            return unclaimedOnly ? unclaimed.rank(slot) : slot;
+        }
+
+        long totalBounty() { return counters.get(BOUNTY); }
+        int claimedCount() { return (int) counters.get(CLAIMED); }
+        void addBounty(long wei) { counters.addAndGet(BOUNTY, wei); }
+        void addClaimed() { counters.incrementAndGet(CLAIMED); }
+        void addClaimed(int n) { counters.addAndGet(CLAIMED, n); }
+        long version() { return counters.get(VERSION); }
+        // After the change is visible, so a reader that saw the old version may see newer data, never older.
+        void bump() { counters.incrementAndGet(VERSION); }
+    }
+
+    // Walks one shard in slot order for the k-way merge behind multi-shard listings.
+    private static final class ShardCursor implements Comparable<ShardCursor> {
+        private final LedgerShard shard;
+        private final boolean unclaimedOnly;
+        private int next;
+        private WatchReport head;
+
+        ShardCursor(LedgerShard shard, boolean unclaimedOnly, int start) {
+            this.shard = shard;
+            this.unclaimedOnly = unclaimedOnly;
+            this.next = start;
+        }
+
+        boolean advance() {
+            while (true) {
+                int slot = unclaimedOnly ? shard.unclaimed.next(next) : next < shard.store.size() ? next : -1;
+                if (slot < 0) return false;
+                next = slot + 1;
+                WatchReport r = shard.store.get(slot);
+                if (r != null && !(unclaimedOnly && r.isClaimed())) {
+                    head = r;
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(ShardCursor o) {
+            return Long.compare(head.getId(), o.head.getId());
+        }
+    }
+
+    private static final class StatsTask extends RecursiveTask<LedgerStats> {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 8;
+        private final LedgerShard[] shards;
+        private final int from, to;
+
+        StatsTask(LedgerShard[] shards, int from, int to) {
+            this.shards = shards;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected LedgerStats compute() {
+            if (to - from <= THRESHOLD) {
+                int count = 0, claimed = 0;
+                long bounty = 0;
+                for (int i = from; i < to; i++) {
+                    count += shards[i].store.count();
+                    bounty += shards[i].totalBounty();
+                    claimed += shards[i].claimedCount();
+                }
+                return new LedgerStats(count, bounty, claimed);
+            }
+            int mid = (from + to) >>> 1;
+            StatsTask left = new StatsTask(shards, from, mid);
+            left.fork();
+            LedgerStats right = new StatsTask(shards, mid, to).compute();
+            LedgerStats l = left.join();
+            return new LedgerStats(l.getReportCount() + right.getReportCount(), l.getTotalBountyWei() + right.getTotalBountyWei(), l.getClaimedCount() + right.getClaimedCount());
+        }
+    }
+
+    // Frames a batch of journal records as one group record, [REC_GROUP] then [int length][payload] per
+    // record, under a single length and CRC. It is written with one append and one sync, so replay
+    // applies the whole batch or, if the write was torn, none of it.
+    private static final class RecordBatch {
+        private final LedgerJournal journal;
+        private ByteBuffer b = ByteBuffer.allocate(4 << 10);
+        private int at;
+
+        RecordBatch(LedgerJournal journal) {
+            this.journal = journal;
+            b.position(8);
+            b.put(LedgerJournal.REC_GROUP);
+        }
+
+        // The buffer positioned for a payload of len bytes.
+        ByteBuffer begin(int len) {
+            if (b.remaining() < len + 4) b = ByteBuffer.allocate(Math.max(b.position() + len + 4, b.capacity() * 2)).put(b.flip());
+            at = b.position();
+            b.position(at + 4);
+            return b;
+        }
+
+        void end() { b.putInt(at, b.position() - at - 4); }
+
+        void commit() throws CG_Exception { journal.commit(b); }
+    }
+
+    // Reports are hash-partitioned by submitting thread across a power-of-two number of shards.
+    // A report id is a packed long (see ReportIdGen) naming its shard and slot directly, so lookups
+    // are two array reads and ids remain unique and time-ordered across shards.
+    private static final class WatchLedger {
+        private static final int MAX_SHARDS = 1 << ReportIdGen.SHARD_BITS;
+        static final long MALFORMED_ID = -2;   // id text of neither form; getById finds nothing for it
+
+        private final LedgerShard[] shards;
+        private final int shardMask;
+        private final int maxReports;
+        private volatile LedgerJournal journal;
+
+        WatchLedger(int maxReports) { this(maxReports, 1); }
+
+        WatchLedger(int maxReports, int shardCount) {
+            int n = Integer.highestOneBit(Math.max(1, Math.min(MAX_SHARDS, shardCount)));
+            this.shardMask = n - 1;
+            this.maxReports = maxReports;
+            this.shards = new LedgerShard[n];
+            for (int i = 0; i < n; i++) shards[i] = new LedgerShard(i, maxReports / n + (i < maxReports % n ? 1 : 0));
+        }
+
+        static int defaultShards() {
+            return Math.min(MAX_SHARDS, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+        }
+
+        void attachJournal(LedgerJournal journal) { this.journal = journal; }
+
+        long appendReport(String body, String from, int bountyWei) throws CG_Exception {
+            int home = homeShard();
+            for (int i = 0; i <= shardMask; i++) {
+                LedgerShard s = shards[(home + i) & shardMask];
+                long reserved = s.store.reserve();
+                if (reserved >= 0) return append(s, reserved, body, from, bountyWei);
+            }
+            throw new CG_Exception("CG_ReportCapReached");
+        }
+
+        private long append(LedgerShard s, long reserved, String body, String from, int bountyWei) throws CG_Exception {
+            int slot = (int) reserved;
+            long id = ReportIdGen.pack(reserved >>> 32, s.index, slot);
+            WatchReport r = new WatchReport(id, body, bountyWei, from);
+            LedgerJournal j = journal;
+            if (j != null) {
+                PublishGate gate = j.enterPublish();
+                try {
+                    try {
+                        j.logSubmit(r);
+                    } catch (CG_Exception e) {
+                        j.logAbandoned(id, 1);
+                        s.store.abandon(slot, 1);
+                        throw e;
+                    }
+                    s.unclaimed.mark(slot);
+                    s.store.publish(slot, r);
+                } finally {
+                    gate.exit();
+                }
+            } else {
+                s.unclaimed.mark(slot);
+                s.store.publish(slot, r);
+            }
+            s.addBounty(bountyWei);
+            s.bump();
+            EventLog.emit(EventKind.REPORT_SUBMITTED, id, from);
+            return id;
+        }
+
+        // Appends n reports as one batch: one slot range per shard, one journal write and sync, one counter
+        // update per shard and one grouped event emission. Reports that do not fit get id -1.
+        long[] appendBatch(String[] bodies, String[] froms, int[] bounties, int n) throws CG_Exception {
+            long[] ids = new long[n];
+            WatchReport[] reports = new WatchReport[n];
+            int[] rangeShard = new int[shards.length], rangeEnd = new int[shards.length];
+            long[] rangeReserved = new long[shards.length];
+            int ranges = 0, done = 0;
+            int home = homeShard();
+            for (int i = 0; i <= shardMask && done < n; i++) {
+                LedgerShard s = shards[(home + i) & shardMask];
+                long reserved = s.store.reserve(n - done);
+                if (reserved < 0) continue;
+                int slot = (int) reserved, count = Math.min(n - done, s.store.capacity() - slot);
+                for (int k = 0; k < count; k++, done++) {
+                    ids[done] = ReportIdGen.pack(reserved >>> 32, s.index, slot + k);
+                    reports[done] = new WatchReport(ids[done], bodies[done], bounties[done], froms[done]);
+                }
+                rangeShard[ranges] = s.index;
+                rangeReserved[ranges] = reserved;
+                rangeEnd[ranges++] = done;
+            }
+            Arrays.fill(ids, done, n, -1);
+            if (done == 0) return ids;
+            LedgerJournal j = journal;
+            PublishGate gate = j != null ? j.enterPublish() : null;
+            try {
+                if (j != null) {
+                    try {
+                        j.logSubmits(reports, done);
+                    } catch (CG_Exception e) {
+                        for (int r = 0; r < ranges; r++) {
+                            int first = r == 0 ? 0 : rangeEnd[r - 1];
+                            j.logAbandoned(ids[first], rangeEnd[r] - first);
+                            shards[rangeShard[r]].store.abandon((int) rangeReserved[r], rangeEnd[r] - first);
+                        }
+                        throw e;
+                    }
+                }
+                for (int r = 0, k = 0; r < ranges; r++) {
+                    LedgerShard s = shards[rangeShard[r]];
+                    long bounty = 0;
+                    for (; k < rangeEnd[r]; k++) {
+                        int slot = ReportIdGen.slot(ids[k]);
+                        s.unclaimed.mark(slot);
+                        s.store.publish(slot, reports[k]);
+                        bounty += bounties[k];
+                    }
+                    s.addBounty(bounty);
+                    s.bump();
+                }
+            } finally {
+                if (gate != null) gate.exit();
+            }
+            EventLog.emitAll(EventKind.REPORT_SUBMITTED, ids, froms, done);
+            return ids;
+        }
+
+        private int homeShard() {
+            return (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 40) & shardMask;
+        }
+
+        void claim(long reportId, String claimer) throws CG_Exception {
+            WatchReport r = getById(reportId);
+            if (r == null) throw new CG_Exception("CG_ReportNotFound");
+            ClaimState state = r.isClaimed() ? null : ClaimState.pending(claimer, System.currentTimeMillis());
+            if (state == null || !r.tryClaim(state)) throw new CG_Exception("CG_AlreadyClaimed");
+            LedgerShard s = shards[ReportIdGen.shard(reportId)];
+            int slot = ReportIdGen.slot(reportId);
+            LedgerJournal j = journal;
+            if (j != null) {
+                PublishGate gate = j.enterPublish();
+                try {
+                    j.logClaim(reportId, state);
+                    state.confirm();
+                } catch (CG_Exception e) {
+                    r.releaseClaim(state);
+                    throw e;
+                } finally {
+                    gate.exit();
+                }
+            } else {
+                state.confirm();
+            }
+            s.unclaimed.clear(slot);
+            s.addClaimed();
+            s.bump();
+            EventLog.emit(EventKind.BOUNTY_CLAIMED, reportId, claimer);
+        }
+
+        // Claims n reports for one claimer. Every claim is decided in one pass; the ones won are journaled
+        // with one write and sync, counted once per shard and emitted as one event group. Returns an error
+        // code per item, null where the claim succeeded.
+        String[] claimBatch(long[] ids, int n, String claimer) {
+            String[] codes = new String[n];
+            ClaimState state = ClaimState.pending(claimer, System.currentTimeMillis());
+            long[] won = new long[n];
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                WatchReport r = getById(ids[i]);
+                if (r == null) codes[i] = CG_ErrorCodes.REPORT_NOT_FOUND;
+                else if (r.isClaimed() || !r.tryClaim(state)) codes[i] = CG_ErrorCodes.ALREADY_CLAIMED;
+                else won[k++] = ids[i];
+            }
+            if (k == 0) return codes;
+            LedgerJournal j = journal;
+            if (j != null) {
+                PublishGate gate = j.enterPublish();
+                try {
+                    j.logClaims(won, k, state);
+                    state.confirm();
+                } catch (CG_Exception e) {
+                    for (int m = 0; m < k; m++) getById(won[m]).releaseClaim(state);
+                    for (int i = 0; i < n; i++) if (codes[i] == null) codes[i] = e.getCode();
+                    return codes;
+                } finally {
+                    gate.exit();
+                }
+            } else {
+                state.confirm();
+            }
+            int[] claimed = new int[shards.length];
+            for (int m = 0; m < k; m++) {
+                int shard = ReportIdGen.shard(won[m]);
+                shards[shard].unclaimed.clear(ReportIdGen.slot(won[m]));
+                claimed[shard]++;
+            }
+            for (int s = 0; s < shards.length; s++) {
+                if (claimed[s] == 0) continue;
+                shards[s].addClaimed(claimed[s]);
+                shards[s].bump();
+            }
+            String[] claimers = new String[k];
+            Arrays.fill(claimers, claimer);
+            EventLog.emitAll(EventKind.BOUNTY_CLAIMED, won, claimers, k);
+            return codes;
+        }
+
+        WatchReport getById(long reportId) {
+            if (reportId < 0) return null;
+            int shard = ReportIdGen.shard(reportId);
+            if (shard > shardMask) return null;
+            WatchReport r = shards[shard].store.get(ReportIdGen.slot(reportId));
+            return r != null && r.getId() == reportId ? r : null;
+        }
+
+        // Replays a journaled submit; no events are emitted for recovered state.
+        void restoreReport(long id, String body, String from, int bountyWei) {
+            int shard = ReportIdGen.shard(id), slot = ReportIdGen.slot(id);
+            if (shard > shardMask) return;
+            LedgerShard s = shards[shard];
+            WatchReport r = new WatchReport(id, body, bountyWei, from);
+            if (s.store.taken(slot) || !s.store.restore(slot, r)) return;
+            s.unclaimed.mark(slot);
+            s.addBounty(bountyWei);
+            s.bump();
+        }
+
+        // Replays a tombstone: n slots from id's on belong to a submit that failed after its record may
+        // have reached the journal. They stay dead, whatever replay had put there, and are not reused.
+        void restoreAbandoned(long id, int n) {
+            int shard = ReportIdGen.shard(id), slot = ReportIdGen.slot(id);
+            if (shard > shardMask) return;
+            LedgerShard s = shards[shard];
+            for (int k = 0; k < n; k++) {
+                WatchReport r = s.store.bury(slot + k, ReportIdGen.second(id));
+                if (r == null) continue;
+                s.unclaimed.clear(slot + k);
+                s.addBounty(-r.getBountyWei());
+                s.bump();
+            }
+        }
+
+        void restoreClaim(long id, ClaimState state) {
+            WatchReport r = getById(id);
+            if (r == null || !r.tryClaim(state)) return;
+            LedgerShard s = shards[ReportIdGen.shard(id)];
+            s.unclaimed.clear(ReportIdGen.slot(id));
+            s.addClaimed();
+            s.bump();
+        }
+
+        // Format 2 records name a report by shard, slot and creation millis. The packed id takes the
+        // creation second, raised to the previous slot's so ids still ascend within the shard.
+        void restoreLegacy(int shard, int slot, long millis, String body, String from, int bountyWei) {
+            if (shard < 0 || shard > shardMask || slot < 0) return;
+            long second = legacySecond(millis);
+            WatchReport prev = shards[shard].store.get(slot - 1);
+            if (prev != null) second = Math.max(second, ReportIdGen.second(prev.getId()));
+            restoreReport(ReportIdGen.pack(second, shard, slot), body, from, bountyWei);
+        }
+
+        void restoreLegacyClaim(int shard, int slot, ClaimState state) {
+            if (shard < 0 || shard > shardMask) return;
+            WatchReport r = shards[shard].store.get(slot);
+            if (r != null) restoreClaim(r.getId(), state);
+        }
+
+        // "CG-<millis>-<seq>" as handed out before ids were packed, seq - 1 = slot << shardBits | shard.
+        // Returns the report's packed id, -1 if there is no such report, or MALFORMED_ID.
+        long legacyId(String text) {
+            if (text == null || !text.startsWith(WatchConstants.REPORT_ID_PREFIX)) return MALFORMED_ID;
+            int dash = text.lastIndexOf('-');
+            if (dash <= WatchConstants.REPORT_ID_PREFIX_LEN || text.length() - dash > 11 || dash - WatchConstants.REPORT_ID_PREFIX_LEN > 15) return MALFORMED_ID;
+            long millis = decimal(text, WatchConstants.REPORT_ID_PREFIX_LEN, dash);
+            long seq = decimal(text, dash + 1, text.length());
+            if (millis < 0 || seq <= 0) return MALFORMED_ID;
+            long slot = (seq - 1) >>> Integer.numberOfTrailingZeros(shards.length);
+            if (slot > Integer.MAX_VALUE) return -1;
+            WatchReport r = shards[(int) ((seq - 1) & shardMask)].store.get((int) slot);
+            return r != null && ReportIdGen.second(r.getId()) >= legacySecond(millis) ? r.getId() : -1;
+        }
+
+        private static long legacySecond(long millis) { return Math.max(0, millis / 1000 - ReportIdGen.EPOCH_SECOND); }
+
+        private static long decimal(String s, int from, int to) {
+            if (from >= to) return -1;
+            long v = 0;
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') return -1;
+                v = v * 10 + (c - '0');
+            }
+            return v;
+        }
+
+        List<WatchReport> listUnclaimed(int offset, int limit) {
+            if (shards.length > 1) return merge(-1, offset, limit, true);
+            LedgerShard s = shards[0];
+            int end = s.store.published();
+            List<WatchReport> out = new ArrayList<>(Math.max(0, Math.min(limit, BATCH_QUERY_LIMIT)));
+            for (int slot = s.unclaimed.select(Math.max(0, offset)); slot >= 0 && slot < end && out.size() < limit; slot = s.unclaimed.next(slot + 1)) {
+                WatchReport r = s.store.get(slot);
+                if (r != null && !r.isClaimed()) out.add(r);
+            }
+            return out;
+        }
+
+        List<WatchReport> list(int offset, int limit) {
+            if (shards.length > 1) return merge(-1, offset, limit, false);
+            ReportStore store = shards[0].store;
+            int size = store.published();
+            int from = PaginationHelper.fromIndex(offset, size);
+            List<WatchReport> out = new ArrayList<>(PaginationHelper.toIndex(offset, limit, size) - from);
+            for (int i = from; i < size && out.size() < limit; i++) {   // dead slots read as null
+                WatchReport r = store.get(i);
+                if (r != null) out.add(r);
+            }
+            return out;
+        }
+
+        // Keyset page: reports with id > afterId in id order, resumed per shard in O(log n).
+        List<WatchReport> listAfter(long afterId, int limit, boolean unclaimedOnly) {
+            return merge(afterId, 0, limit, unclaimedOnly);
+        }
+
+        // Streams the shards in id (creation-time) order through a heap of per-shard cursors. An offset is
+        // resolved first by bisecting the id space on summed per-shard counts (binary search per shard, plus
+        // a Fenwick rank for unclaimed), so the walk only covers the page itself. Nothing at or past the
+        // horizon is returned: a report published there later could still sort below it, and a cursor
+        // handed out beyond it would step over that report for good. With several shards a report from
+        // the current second can so trail in listings by up to a second.
+        private List<WatchReport> merge(long afterId, int offset, int limit, boolean unclaimedOnly) {
+            long horizon = horizon();
+            if (offset > 0 && afterId < 0) {
+                if (horizon == 0 || countUpTo(horizon - 1, unclaimedOnly) <= offset) return new ArrayList<>(0);
+                long lo = 0, hi = horizon - 1;
+                while (lo < hi) {
+                    long mid = lo + ((hi - lo) >>> 1);
+                    if (countUpTo(mid, unclaimedOnly) > offset) hi = mid;
+                    else lo = mid + 1;
+                }
+                afterId = lo - 1;
+                offset -= countUpTo(afterId, unclaimedOnly);
+            }
+            PriorityQueue<ShardCursor> heap = new PriorityQueue<>(shards.length);
+            for (LedgerShard s : shards) {
+                ShardCursor c = new ShardCursor(s, unclaimedOnly, s.slotAfter(afterId));
+                if (c.advance()) heap.add(c);
+            }
+            List<WatchReport> out = new ArrayList<>(Math.max(0, Math.min(limit, CURSOR_QUERY_LIMIT)));
+            int skip = Math.max(0, offset);
+            while (out.size() < limit && !heap.isEmpty() && heap.peek().head.getId() < horizon) {
+                ShardCursor c = heap.poll();
+                if (skip > 0) skip--;
+                else out.add(c.head);
+                if (c.advance()) heap.add(c);
+            }
+            return out;
+        }
+
+        // Minimum over the shards of ReportStore.horizon: every report with a smaller id is readable now.
+        long horizon() {
+            long h = Long.MAX_VALUE;
+            for (LedgerShard s : shards) h = Math.min(h, s.store.horizon(s.index));
+            return h;
+        }
+
+        private long countUpTo(long x, boolean unclaimedOnly) {
+            long n = 0;
+            for (LedgerShard s : shards) n += s.countUpTo(x, unclaimedOnly);
+            return n;
+        }
+
+        int shardCount() { return shards.length; }
+        LedgerShard shard(int i) { return shards[i]; }
+
+        // See ReportStore.seal; called once journal recovery is complete.
+        void seal() {
+            for (LedgerShard s : shards) s.store.seal();
+        }
+
+        int reportCount() {
+            int n = 0;
+            for (LedgerShard s : shards) n += s.store.count();
+            return n;
+        }
+
+        int capacity() { return maxReports; }
+
+        LedgerStats stats() {
+            return new StatsTask(shards, 0, shards.length).invoke();
+        }
+
+        // Sum of the shard versions: grows with every submit and claim, and only then.
+        long version() {
+            long v = 0;
+            for (LedgerShard s : shards) v += s.version();
+            return v;
+        }
+    }
+
+    private enum Durability { FSYNC, BATCH, ASYNC }
+
+    // Counts writes journaled but not yet published. The snapshotter swaps in a fresh gate and waits for
+    // the old one to drain; the last writer out of a draining gate wakes it.
+    private static final class PublishGate {
+        private final AtomicInteger open = new AtomicInteger();
+        private volatile boolean draining;
+
+        void enter() { open.incrementAndGet(); }
+
+        void exit() {
+            if (open.decrementAndGet() == 0 && draining) {
+                synchronized (this) { notifyAll(); }
+            }
+        }
+
+        synchronized void awaitDrained() throws InterruptedIOException {
+            draining = true;
+            try {
+                while (open.get() != 0) wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("snapshot interrupted");
+            }
+        }
+    }
+
+    // Write-ahead log for submits and claims, written before either is acknowledged.
+    // Segments are pre-allocated, zero-filled files "wal-<n>.log"; each record is
+    // [int length][int crc32][payload] and a zero length marks the end of the written tail.
+    // A write that fails part-way leaves a record replay stops at, so the next append rolls to a
+    // fresh segment first. A submit whose write or sync failed is followed by a best-effort
+    // REC_ABANDON tombstone for its slots; if that is lost too, a record that did reach the disk
+    // comes back on restart, under an id no other report was given.
+    // FSYNC forces per record, BATCH group-commits (one force covers every writer queued
+    // behind it), ASYNC forces from a background thread every ASYNC_FLUSH_MILLIS.
+    private static final class LedgerJournal {
+        private static final int MAGIC = 0x4347574C;
+        private static final int VERSION = 4;
+        private static final int UNGROUPED_VERSION = 3;
+        private static final int LEGACY_VERSION = 2;
+        private static final int HEADER_BYTES = 16;
+        private static final int SEGMENT_BYTES = 32 << 20;
+        private static final byte REC_SUBMIT = 1;
+        private static final byte REC_CLAIM = 2;
+        private static final byte REC_ABANDON = 3;
+        private static final byte REC_GROUP = 4;
+        private static final long ASYNC_FLUSH_MILLIS = 20;
+
+        private final File dir;
+        private final Durability durability;
+        private final Object appendLock = new Object();
+        private final Object syncLock = new Object();
+        private final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(8192));
+        private final CRC32 crc = new CRC32();
+        private FileChannel channel;
+        private long segment;
+        private int position;
+        private boolean torn;
+        private volatile long writtenLsn;
+        private long durableLsn;
+        private volatile PublishGate unpublished = new PublishGate();
+        private ScheduledExecutorService flusher;
+        private ExecutorService preallocator;
+        private volatile File spare;
+
+        private LedgerJournal(File dir, Durability durability) {
+            this.dir = dir;
+            this.durability = durability;
+        }
+
+        // Loads the newest snapshot, then replays only the segments written after it.
+        static LedgerJournal open(File dir, Durability durability, WatchLedger ledger) throws IOException {
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+            int persisted = persistedShards(dir);
+            if (persisted == 0) {
+                java.nio.file.Files.write(new File(dir, "shards").toPath(), String.valueOf(ledger.shardCount()).getBytes(StandardCharsets.UTF_8));
+            } else if (persisted != ledger.shardCount()) {
+                throw new IOException(dir + " was written with " + persisted + " shards; start with --shards " + persisted);
+            }
+            LedgerJournal j = new LedgerJournal(dir, durability);
+            long from = LedgerSnapshot.loadLatest(dir, ledger);
+            long[] segments = j.listSegments();
+            if (segments.length > 0 && segments[0] > from) throw new IOException("no usable snapshot covers journal segments before " + segments[0] + " in " + dir);
+            j.truncateBefore(from);
+            segments = j.listSegments();
+            for (int i = 0; i < segments.length; i++) {
+                int end = j.replay(segments[i], ledger);
+                if (i < segments.length - 1) continue;
+                // A format 2 tail is left as it is; new records start a segment of their own.
+                if (end > 0) j.reopen(segments[i], end);
+                else j.roll(segments[i] + 1);
+            }
+            if (segments.length == 0) j.roll(0);
+            ledger.seal();
+            j.durableLsn = j.writtenLsn;
+            j.preallocator = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "cg-journal-prealloc");
+                t.setDaemon(true);
+                return t;
+            });
+            j.preallocator.execute(j::prepareSpare);
+            if (durability == Durability.ASYNC) {
+                j.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "cg-journal-flush");
+                    t.setDaemon(true);
+                    return t;
+                });
+                j.flusher.scheduleWithFixedDelay(() -> {
+                    try { j.sync(j.writtenLsn); } catch (IOException e) { System.err.println("Journal: " + e.getMessage()); }
+                }, ASYNC_FLUSH_MILLIS, ASYNC_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            return j;
+        }
+
+        // Ids encode the shard, so a journal directory is bound to the shard count it was created with.
+        static int persistedShards(File dir) {
+            File f = new File(dir, "shards");
+            if (!f.isFile()) return 0;
+            try {
+                return Integer.parseInt(new String(java.nio.file.Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8).trim());
+            } catch (IOException | NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        // Submits and claims are journaled before they are published; the snapshotter waits for the gate
+        // to drain so that everything journaled in a segment it is about to drop is visible in the ledger.
+        PublishGate enterPublish() {
+            PublishGate g = unpublished;
+            g.enter();
+            return g;
+        }
+
+        // Starts a fresh segment and returns its number once every write journaled before it is published.
+        long rollForSnapshot() throws IOException {
+            long next;
+            synchronized (appendLock) {
+                roll(segment + 1);
+                next = segment;
+            }
+            PublishGate drained = unpublished;
+            unpublished = new PublishGate();
+            drained.awaitDrained();
+            return next;
+        }
+
+        void truncateBefore(long seg) {
+            for (long s : listSegments()) {
+                if (s < seg && !segmentFile(s).delete()) System.err.println("Journal: cannot delete segment " + s);
+            }
+        }
+
+        long writtenLsn() { return writtenLsn; }
+
+        void logSubmit(WatchReport r) throws CG_Exception {
+            byte[] from = r.getFrom().getBytes(StandardCharsets.UTF_8);
+            byte[] body = r.getBody().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer b = record(1 + 8 + 4 + 4 + from.length + 4 + body.length);
+            b.put(REC_SUBMIT).putLong(r.getId()).putInt(r.getBountyWei());
+            b.putInt(from.length).put(from).putInt(body.length).put(body);
+            commit(b);
+        }
+
+        // Frames every report as a submit record inside one group record; see RecordBatch.
+        void logSubmits(WatchReport[] reports, int n) throws CG_Exception {
+            RecordBatch batch = new RecordBatch(this);
+            for (int i = 0; i < n; i++) {
+                byte[] from = reports[i].getFrom().getBytes(StandardCharsets.UTF_8);
+                byte[] body = reports[i].getBody().getBytes(StandardCharsets.UTF_8);
+                ByteBuffer b = batch.begin(1 + 8 + 4 + 4 + from.length + 4 + body.length);
+                b.put(REC_SUBMIT).putLong(reports[i].getId()).putInt(reports[i].getBountyWei());
+                b.putInt(from.length).put(from).putInt(body.length).put(body);
+                batch.end();
+            }
+            batch.commit();
+        }
+
+        void logClaims(long[] ids, int n, ClaimState state) throws CG_Exception {
+            byte[] by = state.getBy().getBytes(StandardCharsets.UTF_8);
+            RecordBatch batch = new RecordBatch(this);
+            for (int i = 0; i < n; i++) {
+                batch.begin(1 + 8 + 8 + 4 + by.length).put(REC_CLAIM).putLong(ids[i]).putLong(state.getClaimedAtMillis()).putInt(by.length).put(by);
+                batch.end();
+            }
+            batch.commit();
+        }
+
+        // Tombstone for n slots from id's on whose submit failed; see the class comment. Best effort.
+        void logAbandoned(long id, int n) {
+            ByteBuffer b = record(1 + 8 + 4);
+            b.put(REC_ABANDON).putLong(id).putInt(n);
+            try {
+                commit(b);
+            } catch (CG_Exception e) {
+                System.err.println("Journal: cannot record abandoned submit " + ReportIdGen.format(id));
+            }
+        }
+
+        void logClaim(long id, ClaimState state) throws CG_Exception {
+            byte[] by = state.getBy().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer b = record(1 + 8 + 8 + 4 + by.length);
+            b.put(REC_CLAIM).putLong(id).putLong(state.getClaimedAtMillis()).putInt(by.length).put(by);
+            commit(b);
+        }
+
+        private ByteBuffer record(int payload) {
+            ByteBuffer b = scratch.get();
+            if (b.capacity() < payload + 8) {
+                b = ByteBuffer.allocate(payload + 8);
+                if (payload + 8 <= 1 << 16) scratch.set(b);
+            }
+            b.clear();
+            b.position(8);
+            return b;
+        }
+
+        private void commit(ByteBuffer b) throws CG_Exception {
+            try {
+                long lsn = append(b);
+                if (durability != Durability.ASYNC) sync(lsn);
+            } catch (IOException e) {
+                throw new CG_Exception(CG_ErrorCodes.JOURNAL_WRITE_FAILED);
+            }
+        }
+
+        private long append(ByteBuffer b) throws IOException {
+            int len = b.position() - 8;
+            b.flip();
+            synchronized (appendLock) {
+                crc.reset();
+                crc.update(b.array(), 8, len);
+                b.putInt(0, len).putInt(4, (int) crc.getValue());
+                if (torn || position + b.remaining() > SEGMENT_BYTES) roll(segment + 1);
+                try {
+                    while (b.hasRemaining()) position += channel.write(b, position);
+                } catch (IOException e) {
+                    torn = true;
+                    throw e;
+                }
+                writtenLsn = segment * SEGMENT_BYTES + position;
+                return writtenLsn;
+            }
+        }
+
+        // FSYNC forces on the caller's behalf every time. Otherwise one force runs at a time and covers
+        // everything written before it started, so writers that queued behind it usually find their
+        // record already durable when they get the lock.
+        private void sync(long lsn) throws IOException {
+            if (durability == Durability.FSYNC) {
+                force();
+                return;
+            }
+            synchronized (syncLock) {
+                if (durableLsn < lsn) durableLsn = Math.max(durableLsn, force());
+            }
+        }
+
+        private long force() throws IOException {
+            FileChannel ch;
+            long target;
+            synchronized (appendLock) {
+                ch = channel;
+                target = writtenLsn;
+            }
+            try {
+                ch.force(false);
+            } catch (ClosedChannelException e) {
+                // rolled underneath us; roll() forced the old segment before closing it
+            }
+            return target;
+        }
+
+        // Caller holds appendLock (or is single-threaded during open). Takes the segment the preallocator
+        // zero-filled in the background when there is one, so writers only wait for a rename here.
+        private void roll(long next) throws IOException {
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+            }
+            File f = segmentFile(next);
+            File ready = spare;
+            spare = null;
+            if (ready == null || !ready.renameTo(f)) zeroFill(f);
+            LedgerSnapshot.syncDirectory(dir);
+            if (preallocator != null && !preallocator.isShutdown()) preallocator.execute(this::prepareSpare);
+            FileChannel ch = FileChannel.open(f.toPath(), java.nio.file.StandardOpenOption.READ, java.nio.file.StandardOpenOption.WRITE);
+            ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putLong(next);
+            h.flip();
+            ch.write(h, 0);
+            ch.force(true);
+            channel = ch;
+            segment = next;
+            position = HEADER_BYTES;
+            torn = false;
+            writtenLsn = segment * SEGMENT_BYTES + position;
+        }
+
+        private static void zeroFill(File f) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                raf.setLength(0);
+                byte[] zeros = new byte[1 << 20];
+                for (int i = 0; i < SEGMENT_BYTES; i += zeros.length) raf.write(zeros);
+                raf.getFD().sync();
+            }
+        }
+
+        // Runs on the preallocator thread only.
+        private void prepareSpare() {
+            if (spare != null) return;
+            File f = new File(dir, "wal-spare.tmp");
+            try {
+                zeroFill(f);
+                spare = f;
+            } catch (IOException e) {
+                System.err.println("Journal: cannot preallocate a segment: " + e.getMessage());
+            }
+        }
+
+        private void reopen(long seg, int end) throws IOException {
+            channel = FileChannel.open(segmentFile(seg).toPath(), java.nio.file.StandardOpenOption.READ, java.nio.file.StandardOpenOption.WRITE);
+            segment = seg;
+            position = end;
+            writtenLsn = segment * SEGMENT_BYTES + position;
+        }
+
+        // Applies every intact record of one segment and returns the offset just past the last one,
+        // or -1 for a segment of an older format, which is read but never appended to.
+        private int replay(long seg, WatchLedger ledger) throws IOException {
+            try (FileChannel ch = FileChannel.open(segmentFile(seg).toPath(), java.nio.file.StandardOpenOption.READ)) {
+                MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                if (m.limit() < HEADER_BYTES || m.getInt(0) != MAGIC) throw new IOException("bad journal segment " + seg);
+                int version = m.getInt(4);
+                if (version != VERSION && version != UNGROUPED_VERSION && version != LEGACY_VERSION) throw new IOException("journal segment " + seg + " has format " + version + ", expected " + VERSION);
+                CRC32 check = new CRC32();
+                int pos = HEADER_BYTES;
+                while (pos + 8 <= m.limit()) {
+                    int len = m.getInt(pos);
+                    if (len <= 0 || pos + 8 + len > m.limit()) break;
+                    ByteBuffer payload = m.duplicate();
+                    payload.position(pos + 8).limit(pos + 8 + len);
+                    check.reset();
+                    check.update(payload.duplicate());
+                    if ((int) check.getValue() != m.getInt(pos + 4)) break;
+                    if (version == LEGACY_VERSION) applyLegacy(payload, ledger);
+                    else apply(payload, ledger);
+                    pos += 8 + len;
+                }
+                return version == VERSION ? pos : -1;
+            }
+        }
+
+        private static void apply(ByteBuffer p, WatchLedger ledger) {
+            byte type = p.get();
+            if (type == REC_GROUP) {
+                while (p.remaining() >= 4) {
+                    int len = p.getInt();
+                    ByteBuffer r = p.duplicate();
+                    r.limit(p.position() + len);
+                    apply(r, ledger);
+                    p.position(p.position() + len);
+                }
+                return;
+            }
+            long id = p.getLong();
+            if (type == REC_SUBMIT) {
+                int bounty = p.getInt();
+                String from = readString(p);
+                String body = readString(p);
+                ledger.restoreReport(id, body, from, bounty);
+            } else if (type == REC_CLAIM) {
+                long at = p.getLong();
+                ledger.restoreClaim(id, new ClaimState(readString(p), at));
+            } else if (type == REC_ABANDON) {
+                ledger.restoreAbandoned(id, p.getInt());
+            }
+        }
+
+        private static void applyLegacy(ByteBuffer p, WatchLedger ledger) {
+            byte type = p.get();
+            int shard = p.getInt();
+            int slot = p.getInt();
+            long millis = p.getLong();
+            if (type == REC_SUBMIT) {
+                int bounty = p.getInt();
+                String from = readString(p);
+                String body = readString(p);
+                ledger.restoreLegacy(shard, slot, millis, body, from, bounty);
+            } else if (type == REC_CLAIM) {
+                ledger.restoreLegacyClaim(shard, slot, new ClaimState(readString(p), millis));
+            }
+        }
+
+        private static String readString(ByteBuffer p) {
+            byte[] b = new byte[p.getInt()];
+            p.get(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        private long[] listSegments() {
+            String[] names = dir.list((d, n) -> n.startsWith("wal-") && n.endsWith(".log"));
+            if (names == null) return new long[0];
+            long[] out = new long[names.length];
+            for (int i = 0; i < names.length; i++) out[i] = Long.parseLong(names[i].substring(4, names[i].length() - 4));
+            Arrays.sort(out);
+            return out;
+        }
+
+        private File segmentFile(long seg) {
+            return new File(dir, String.format("wal-%012d.log", seg));
+        }
+
+        void close() {
+            if (flusher != null) flusher.shutdown();
+            if (preallocator != null) preallocator.shutdownNow();
+            try {
+                sync(writtenLsn);
+                synchronized (appendLock) { channel.close(); }
+            } catch (IOException e) {
+                System.err.println("Journal: " + e.getMessage());
+            }
+        }
+    }
+
+    // Compact point-in-time image of the ledger, "snapshot-<segment>.snap" in the journal directory.
+    // Written in the background while submits and claims continue: the journal is rolled first, the
+    // store is then walked, and replaying segments >= <segment> on top of it is idempotent, so
+    // anything the walk missed or caught early is fixed up by the journal tail. Older segments and
+    // snapshots are deleted once the new file is durable and renamed into place.
+    private static final class LedgerSnapshot {
+        private static final int MAGIC = 0x4347534E;
+        private static final int VERSION = 3;
+        private static final int LEGACY_VERSION = 2;
+        private static final long MAP_WINDOW = 1L << 30;
+
+        static void schedule(File dir, WatchLedger ledger, LedgerJournal journal, int seconds) {
+            ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cg-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            long[] lastLsn = { journal.writtenLsn() };
+            exec.scheduleWithFixedDelay(() -> {
+                if (journal.writtenLsn() == lastLsn[0]) return;
+                try {
+                    long t0 = System.nanoTime();
+                    long seg = journal.rollForSnapshot();
+                    lastLsn[0] = journal.writtenLsn();
+                    int n = write(dir, ledger, seg);
+                    journal.truncateBefore(fallbackSegment(dir));
+                    System.out.println("Snapshot " + seg + ": " + n + " reports in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0) + " ms");
+                } catch (IOException e) {
+                    System.err.println("Snapshot: " + e.getMessage());
+                }
+            }, seconds, seconds, TimeUnit.SECONDS);
+        }
+
+        static int write(File dir, WatchLedger ledger, long fromSegment) throws IOException {
+            File tmp = new File(dir, "snapshot-" + fromSegment + ".tmp");
+            LedgerStats stats = ledger.stats();
+            int written = 0;
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fos, 1 << 16), new CRC32());
+                DataOutputStream out = new DataOutputStream(checked);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fromSegment);
+                out.writeInt(ledger.shardCount());
+                out.writeInt(stats.getReportCount());
+                out.writeLong(stats.getTotalBountyWei());
+                out.writeInt(stats.getClaimedCount());
+                for (int sh = 0; sh < ledger.shardCount(); sh++) {
+                    ReportStore store = ledger.shard(sh).store;
+                    int size = store.size();
+                    for (int slot = 0; slot < size; slot++) {
+                        WatchReport r = store.get(slot);
+                        if (r == null) continue;
+                        out.writeByte(1);
+                        out.writeLong(r.getId());
+                        out.writeInt(r.getBountyWei());
+                        writeString(out, r.getFrom());
+                        writeString(out, r.getBody());
+                        ClaimState c = r.getClaimState();
+                        out.writeBoolean(c != null);
+                        if (c != null) {
+                            out.writeLong(c.getClaimedAtMillis());
+                            writeString(out, c.getBy());
+                        }
+                        written++;
+                    }
+                }
+                out.writeByte(0);
+                out.flush();
+                long crc = checked.getChecksum().getValue();
+                out.writeLong(crc);
+                out.flush();
+                fos.getFD().sync();
+            }
+            java.nio.file.Files.move(tmp.toPath(), new File(dir, "snapshot-" + fromSegment + ".snap").toPath(), java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(dir);
+            long keep = fallbackSegment(dir);
+            for (long older : list(dir)) {
+                if (older < keep) new File(dir, "snapshot-" + older + ".snap").delete();
+            }
+            return written;
+        }
+
+        // The previous snapshot is kept, with the journal segments after it, as the fallback should the
+        // newest one prove unreadable; with a single snapshot the fallback is the journal from segment 0.
+        static long fallbackSegment(File dir) {
+            long[] snaps = list(dir);
+            return snaps.length >= 2 ? snaps[snaps.length - 2] : 0;
+        }
+
+        // Makes a rename in dir durable.
+        static void syncDirectory(File dir) throws IOException {
+            try (FileChannel ch = FileChannel.open(dir.toPath(), java.nio.file.StandardOpenOption.READ)) {
+                ch.force(true);
+            }
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+
+        // Maps the newest readable snapshot into the ledger and returns the first journal segment to replay
+        // (0 if none). A snapshot that fails its checksum or header check is skipped for the one before it;
+        // nothing is applied from a snapshot until its checksum has passed.
+        static long loadLatest(File dir, WatchLedger ledger) throws IOException {
+            long[] snaps = list(dir);
+            for (int i = snaps.length - 1; i >= 0; i--) {
+                try {
+                    return load(dir, snaps[i], ledger);
+                } catch (CorruptSnapshotException e) {
+                    System.err.println("Snapshot: " + e.getMessage() + "; falling back to an older snapshot and the journal");
+                    File bad = new File(dir, "snapshot-" + snaps[i] + ".snap");
+                    if (!bad.renameTo(new File(dir, "snapshot-" + snaps[i] + ".corrupt"))) throw e;
+                }
+            }
+            return 0;
+        }
+
+        private static final class CorruptSnapshotException extends IOException {
+            private static final long serialVersionUID = 1L;
+            CorruptSnapshotException(String message) { super(message); }
+        }
+
+        private static long load(File dir, long seg, WatchLedger ledger) throws IOException {
+            File f = new File(dir, "snapshot-" + seg + ".snap");
+            try (FileChannel ch = FileChannel.open(f.toPath(), java.nio.file.StandardOpenOption.READ)) {
+                long size = ch.size();
+                if (size < 8 + 37) throw new CorruptSnapshotException("truncated snapshot " + f);
+                CRC32 crc = new CRC32();
+                for (long at = 0; at < size - 8; at += MAP_WINDOW) crc.update(ch.map(FileChannel.MapMode.READ_ONLY, at, Math.min(MAP_WINDOW, size - 8 - at)));
+                if (ch.map(FileChannel.MapMode.READ_ONLY, size - 8, 8).getLong() != crc.getValue()) throw new CorruptSnapshotException("corrupt snapshot " + f);
+                MappedInput in = new MappedInput(ch, size - 8);
+                if (in.getInt() != MAGIC) throw new CorruptSnapshotException("bad snapshot header " + f);
+                int version = in.getInt();
+                if (version != VERSION && version != LEGACY_VERSION || in.getLong() != seg) throw new CorruptSnapshotException("bad snapshot header " + f);
+                if (in.getInt() != ledger.shardCount()) throw new IOException("snapshot shard count differs from the ledger " + f);
+                in.getInt();
+                in.getLong();
+                in.getInt();
+                if (version == LEGACY_VERSION) {
+                    loadLegacy(in, ledger);
+                    return seg;
+                }
+                while (in.get() == 1) {
+                    long id = in.getLong();
+                    int bounty = in.getInt();
+                    String from = in.getString();
+                    String body = in.getString();
+                    ledger.restoreReport(id, body, from, bounty);
+                    if (in.get() != 0) {
+                        long at = in.getLong();
+                        ledger.restoreClaim(id, new ClaimState(in.getString(), at));
+                    }
+                }
+            }
+            return seg;
+        }
+
+        private static void loadLegacy(MappedInput in, WatchLedger ledger) throws IOException {
+            while (in.get() == 1) {
+                int shard = in.getInt();
+                int slot = in.getInt();
+                long millis = in.getLong();
+                int bounty = in.getInt();
+                String from = in.getString();
+                String body = in.getString();
+                ledger.restoreLegacy(shard, slot, millis, body, from, bounty);
+                if (in.get() != 0) {
+                    long at = in.getLong();
+                    ledger.restoreLegacyClaim(shard, slot, new ClaimState(in.getString(), at));
+                }
+            }
+        }
+
+        private static long[] list(File dir) {
+            String[] names = dir.list((d, n) -> n.startsWith("snapshot-") && n.endsWith(".snap"));
+            if (names == null) return new long[0];
+            long[] out = new long[names.length];
+            for (int i = 0; i < names.length; i++) out[i] = Long.parseLong(names[i].substring(9, names[i].length() - 5));
+            Arrays.sort(out);
+            return out;
+        }
+    }
+
+    // Sequential reader over a read-only file mapping, remapped in windows so files past 2 GB load too.
+    private static final class MappedInput {
+        private final FileChannel ch;
+        private final long limit;
+        private MappedByteBuffer buf;
+        private long base;
+
+        MappedInput(FileChannel ch, long limit) throws IOException {
+            this.ch = ch;
+            this.limit = limit;
+            remap(0);
+        }
+
+        private void remap(long at) throws IOException {
+            base = at;
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, at, Math.min(LedgerSnapshot.MAP_WINDOW, limit - at));
+        }
+
+        private void ensure(int n) throws IOException {
+            if (buf.remaining() >= n) return;
+            long at = base + buf.position();
+            if (limit - at < n) throw new EOFException();
+            remap(at);
+        }
+
+        byte get() throws IOException { ensure(1); return buf.get(); }
+        int getInt() throws IOException { ensure(4); return buf.getInt(); }
+        long getLong() throws IOException { ensure(8); return buf.getLong(); }
+
+        String getString() throws IOException {
+            int n = getInt();
+            ensure(n);
+            byte[] b = new byte[n];
+            buf.get(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+    }
+
+    public static final class LedgerStats {
+        private final int reportCount;
+        private final long totalBountyWei;
+        private final int claimedCount;
+
+        public LedgerStats(int reportCount, long totalBountyWei, int claimedCount) {
+            this.reportCount = reportCount;
+            this.totalBountyWei = totalBountyWei;
+            this.claimedCount = claimedCount;
+        }
+        public int getReportCount() { return reportCount; }
+        public long getTotalBountyWei() { return totalBountyWei; }
+        public int getClaimedCount() { return claimedCount; }
+    }
+
+    // --- Event types (unique names) ---
+    public static final class WatchEvent {
+        public static final String REPORT_SUBMITTED = "WatchReportSubmitted";
+        public static final String BOUNTY_CLAIMED = "WatchBountyClaimed";
+        public static final String LEDGER_CAP_REACHED = "WatchLedgerCapReached";
+    }
+
+    // Selector front end. The accepting thread hands connections round-robin to reactor threads that
+    // only move bytes: reads land in a pooled direct buffer and go to the connection's RequestReader
+    // until a whole request is in, which is then dispatched on a bounded worker pool, since a submit or claim
+    // may wait on the journal. The worker posts the response back to its reactor, which writes it
+    // without blocking. Event streams leave the selector and go to the stream pumps as blocking channels.
+    private static final class NioServer {
+        private final Cigilante app;
+        private final ServerSocketChannel server;
+        private final Reactor[] reactors;
+        private final ThreadPoolExecutor workers;
+
+        NioServer(Cigilante app, int port, int reactorCount, int workerCount) throws IOException {
+            this.app = app;
+            this.server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port), 1024);
+            this.workers = new ThreadPoolExecutor(workerCount, workerCount, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(app.options.requestQueue), daemon("cg-worker"));
+            this.reactors = new Reactor[reactorCount];
+            for (int i = 0; i < reactorCount; i++) {
+                reactors[i] = new Reactor(this);
+                Thread t = new Thread(reactors[i], "cg-reactor-" + i);
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+
+        private static ThreadFactory daemon(String name) {
+            AtomicInteger n = new AtomicInteger();
+            return r -> {
+                Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            };
+        }
+
+        void acceptLoop() throws IOException {
+            int next = 0;
+            while (server.isOpen()) {
+                SocketChannel ch;
+                try {
+                    ch = server.accept();
+                } catch (ClosedChannelException e) {
+                    return;
+                }
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                reactors[next++ % reactors.length].register(ch);
+            }
+        }
+
+        void close() {
+            try { server.close(); } catch (IOException ignored) { }
+            for (Reactor r : reactors) r.close();
+            workers.shutdownNow();
+        }
+    }
+
+    private static final class NioConnection {
+        final SocketChannel ch;
+        final RequestReader in;
+        ByteBuffer out;
+        int served;
+        boolean keepAlive;
+        // When the connection began its current wait: for the next request, for the rest of a
+        // partly read one, or for the client to take a response.
+        long since = System.nanoTime();
+
+        NioConnection(SocketChannel ch, RouteTable routes) {
+            this.ch = ch;
+            long client = 0;
+            try {
+                client = clientKey(((InetSocketAddress) ch.getRemoteAddress()).getAddress());
+            } catch (IOException ignored) { }
+            this.in = new RequestReader(null, client, routes);
+        }
+    }
+
+    private static final class Reactor implements Runnable {
+        private static final int BUFFER_BYTES = 16 << 10;
+        private static final int POOL_LIMIT = 256;
+        private static final byte[] ERROR = new Response(HttpStatus.INTERNAL_ERROR, ContentType.JSON_UTF8, new byte[0]).toBytes(false);
+        private static final byte[] BUSY = new Response(HttpStatus.SERVICE_UNAVAILABLE, ContentType.JSON_UTF8, new byte[0], "Retry-After: 1\r\n").toBytes(false);
+        private static final long SWEEP_MILLIS = 1_000;
+
+        private final NioServer server;
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+        private long lastSweep = System.nanoTime();
+
+        Reactor(NioServer server) throws IOException {
+            this.server = server;
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel ch) {
+            execute(() -> {
+                try {
+                    ch.register(selector, SelectionKey.OP_READ, new NioConnection(ch, server.app.routes));
+                } catch (IOException e) {
+                    closeQuietly(ch);
+                }
+            });
+        }
+
+        // Runs the task on this reactor's thread.
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void close() {
+            execute(() -> {
+                for (SelectionKey key : selector.keys()) closeQuietly(key.channel());
+                try { selector.close(); } catch (IOException ignored) { }
+            });
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (selector.isOpen()) {
+                    selector.select(SWEEP_MILLIS);
+                    for (Runnable task; (task = tasks.poll()) != null; ) task.run();
+                    if (!selector.isOpen()) return;
+                    sweep();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) continue;
+                        NioConnection c = (NioConnection) key.attachment();
+                        if (key.isReadable()) read(key, c);
+                        else if (key.isWritable()) write(key, c);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (selector.isOpen()) System.err.println("Reactor: " + e.getMessage());
+            }
+        }
+
+        // Reads into a pooled direct buffer and hands the bytes to the connection's parser straight away,
+        // so an idle or slow connection holds no direct memory between reads.
+        private void read(SelectionKey key, NioConnection c) {
+            ByteBuffer b = borrow();
+            int n;
+            try {
+                n = c.ch.read(b);
+                if (n > 0) {
+                    if (c.in.buffered() == 0) c.since = System.nanoTime();
+                    c.in.append(b.flip());
+                }
+            } catch (HttpException e) {
+                n = 0;
+                reject(key, c, e);
+            } catch (IOException e) {
+                n = -1;
+            } finally {
+                release(b);
+            }
+            if (n < 0) close(key, c);
+            else if (n > 0) next(key, c);
+        }
+
+        // Hands the next buffered request to a worker. Reading stops until its response is written,
+        // which keeps responses to pipelined requests in order.
+        private void next(SelectionKey key, NioConnection c) {
+            Request req;
+            try {
+                req = c.in.poll();
+            } catch (HttpException e) {
+                reject(key, c, e);
+                return;
+            } catch (IOException e) {
+                close(key, c);
+                return;
+            }
+            if (req == null) return;
+            key.interestOps(0);
+            try {
+                server.workers.execute(() -> handle(key, c, req));
+            } catch (RejectedExecutionException e) {
+                server.app.shed.increment();
+                c.keepAlive = false;
+                respond(key, c, BUSY);
+            }
+        }
+
+        private void reject(SelectionKey key, NioConnection c, HttpException e) {
+            key.interestOps(0);
+            c.keepAlive = false;
+            respond(key, c, new Response(e.status, ContentType.JSON_UTF8, new byte[0]).toBytes(false));
+        }
+
+        // Worker thread. The request stays a view over the connection's buffer, which the reactor
+        // leaves alone until the response is handed back.
+        private void handle(SelectionKey key, NioConnection c, Request req) {
+            byte[] response;
+            boolean keepAlive = false;
+            try {
+                if (req.path.is(API_EVENTS_STREAM)) {
+                    execute(() -> detachForStream(key, c, req));
+                    return;
+                }
+                keepAlive = req.keepAlive && ++c.served < server.app.options.maxRequestsPerConnection;
+                response = server.app.dispatch(req).toBytes(keepAlive);
+            } catch (Exception e) {
+                response = ERROR;
+            }
+            byte[] r = response;
+            boolean k = keepAlive;
+            execute(() -> {
+                c.keepAlive = k;
+                respond(key, c, r);
+            });
+        }
+
+        private void respond(SelectionKey key, NioConnection c, byte[] response) {
+            c.out = ByteBuffer.wrap(response);
+            c.since = System.nanoTime();
+            write(key, c);
+        }
+
+        private void write(SelectionKey key, NioConnection c) {
+            try {
+                c.ch.write(c.out);
+            } catch (IOException e) {
+                close(key, c);
+                return;
+            }
+            if (c.out.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else if (!c.keepAlive) {
+                close(key, c);
+            } else {
+                c.out = null;
+                c.since = System.nanoTime();
+                key.interestOps(SelectionKey.OP_READ);
+                if (c.in.buffered() > 0) next(key, c);
+            }
+        }
+
+        // Applies the blocking front ends' deadlines: closes a connection that has waited longer than
+        // keepAliveMillis for its next request, readTimeoutMillis for the rest of one it has started,
+        // or writeTimeoutMillis for the client to take a response. Requests being handled are exempt.
+        private void sweep() {
+            long now = System.nanoTime();
+            if (now - lastSweep < TimeUnit.MILLISECONDS.toNanos(SWEEP_MILLIS)) return;
+            lastSweep = now;
+            CG_Options o = server.app.options;
+            long idle = TimeUnit.MILLISECONDS.toNanos(o.keepAliveMillis);
+            long reading = TimeUnit.MILLISECONDS.toNanos(o.readTimeoutMillis);
+            long writing = TimeUnit.MILLISECONDS.toNanos(o.writeTimeoutMillis);
+            for (SelectionKey key : selector.keys()) {
+                if (!key.isValid()) continue;
+                NioConnection c = (NioConnection) key.attachment();
+                int ops = key.interestOps();
+                long limit = ops == SelectionKey.OP_WRITE ? writing : ops != SelectionKey.OP_READ ? Long.MAX_VALUE : c.in.buffered() == 0 ? idle : reading;
+                if (now - c.since > limit) close(key, c);
+            }
+        }
+
+        private void detachForStream(SelectionKey key, NioConnection c, Request req) {
+            key.cancel();
+            try {
+                selector.selectNow();
+            } catch (IOException ignored) { }
+            try {
+                c.ch.configureBlocking(true);
+                if (server.app.streamEvents(req, Channels.newOutputStream(c.ch), c.ch)) return;
+            } catch (IOException ignored) {
+            }
+            closeQuietly(c.ch);
+        }
+
+        private void close(SelectionKey key, NioConnection c) {
+            key.cancel();
+            closeQuietly(c.ch);
+        }
+
+        private ByteBuffer borrow() {
+            ByteBuffer b = pool.poll();
+            return b != null ? b : ByteBuffer.allocateDirect(BUFFER_BYTES);
+        }
+
+        private void release(ByteBuffer b) {
+            b.clear();
+            if (pool.size() < POOL_LIMIT) pool.push(b);
+        }
+
+        private static void closeQuietly(Channel ch) {
+            try { ch.close(); } catch (IOException ignored) { }
+        }
+    }
+
+    // Binary codes are persisted in the event journal: append new kinds, never reorder.
+    private enum EventKind {
+        EVENTS_DROPPED("WatchEventsDropped"),
+        REPORT_SUBMITTED(WatchEvent.REPORT_SUBMITTED),
+        BOUNTY_CLAIMED(WatchEvent.BOUNTY_CLAIMED),
+        LEDGER_CAP_REACHED(WatchEvent.LEDGER_CAP_REACHED);
+
+        private static final EventKind[] BY_CODE = values();
+        final String wireName;
+
+        EventKind(String wireName) { this.wireName = wireName; }
+
+        static EventKind of(int code) { return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : EVENTS_DROPPED; }
+
+        static EventKind named(String name) {
+            for (EventKind k : BY_CODE) {
+                if (k.wireName.equalsIgnoreCase(name) || k.name().equalsIgnoreCase(name)) return k;
+            }
+            return null;
+        }
+    }
+
+    // One event, filled in place by ring and journal reads so a reader reuses a single instance.
+    // For EVENTS_DROPPED, reportId holds how many events were lost from seq on.
+    private static final class EventRecord {
+        long seq;
+        EventKind kind;
+        long at;
+        long reportId;
+        String address;
+
+        void set(long seq, EventKind kind, long at, long reportId, String address) {
+            this.seq = seq;
+            this.kind = kind;
+            this.at = at;
+            this.reportId = reportId;
+            this.address = address;
+        }
+
+        void write(JsonWriter w) {
+            w.beginObject().name(JsonKeys.SEQ).value(seq).name(JsonKeys.TYPE).value(kind.wireName).name(JsonKeys.AT).value(at);
+            if (kind == EventKind.EVENTS_DROPPED) w.name(JsonKeys.MISSED).value(reportId);
+            else if (reportId >= 0) w.name(JsonKeys.REPORT_ID).reportId(reportId);
+            if (address != null) w.name(JsonKeys.ADDRESS).value(address);
+            w.endObject();
+        }
+    }
+
+    // Every /events/stream subscriber is served by one of a few pump threads instead of a thread of its
+    // own. A pump passes over its subscribers whenever the ring moves, writing each one's backlog, at
+    // most STREAM_BATCH events a pass, and a ping once it has been quiet for the heartbeat interval.
+    // The writes block, so a watchdog closes the socket of a subscriber stuck in one past the write
+    // timeout; one slow client holds up its pump's others at most that long. A subscriber's window
+    // into the ring is its buffer: if it falls a full ring behind it is moved up to the oldest
+    // retained event and told how many it missed. Open streams are capped by --max-streams, apart from
+    // the request threads and in-flight limit; a stream beyond the cap is answered 503.
+    private static final class EventStreams {
+        private static final byte[] PREAMBLE = ("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nCache-Control: no-cache\r\nConnection: close\r\n\r\n"
+            + "retry: 2000\n\n").getBytes(StandardCharsets.UTF_8);
+        private static final byte[] PING = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+
+        private final EventJournal journal;
+        private final long writeTimeoutNanos;
+        private final Pump[] pumps;
+        private final AtomicInteger assigned = new AtomicInteger();
+        private final AtomicInteger open = new AtomicInteger();
+        private final int maxStreams;
+        private boolean started;
+
+        EventStreams(EventJournal journal, int pumps, int maxStreams, long writeTimeoutMillis) {
+            this.journal = journal;
+            this.maxStreams = maxStreams;
+            this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+            this.pumps = new Pump[pumps];
+            for (int i = 0; i < pumps; i++) this.pumps[i] = new Pump();
+        }
+
+        // False, taking nothing on, if maxStreams are already open.
+        boolean add(Closeable conn, OutputStream out, EventFilter filter, long cursor) {
+            for (int n; (n = open.get()) < maxStreams; ) {
+                if (!open.compareAndSet(n, n + 1)) continue;
+                start();
+                pumps[Math.floorMod(assigned.getAndIncrement(), pumps.length)].join(new Subscriber(conn, out, filter, cursor));
+                return true;
+            }
+            return false;
+        }
+
+        int open() { return open.get(); }
+
+        private synchronized void start() {
+            if (started) return;
+            started = true;
+            for (int i = 0; i < pumps.length; i++) {
+                Thread t = new Thread(pumps[i], "cg-stream-" + i);
+                t.setDaemon(true);
+                t.start();
+            }
+            ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cg-stream-watchdog");
+                t.setDaemon(true);
+                return t;
+            });
+            watchdog.scheduleWithFixedDelay(this::closeStalled, 1, 1, TimeUnit.SECONDS);
+        }
+
+        private void closeStalled() {
+            long now = System.nanoTime();
+            for (Pump p : pumps) {
+                Subscriber s = p.writing;
+                if (s != null && now - p.writingSince > writeTimeoutNanos) s.close();
+            }
+        }
+
+        private final class Pump implements Runnable {
+            private final ConcurrentLinkedQueue<Subscriber> joining = new ConcurrentLinkedQueue<>();
+            private final List<Subscriber> subscribers = new ArrayList<>();
+            volatile Subscriber writing;
+            volatile long writingSince;
+
+            void join(Subscriber s) {
+                joining.add(s);
+                EventLog.ring().wake();
+            }
+
+            @Override
+            public void run() {
+                EventRing ring = EventLog.ring();
+                ring.subscribe();
+                try {
+                    while (true) {
+                        int phase = ring.phase();
+                        for (Subscriber s; (s = joining.poll()) != null; ) subscribers.add(s);
+                        long now = System.nanoTime(), wait = STREAM_HEARTBEAT_MILLIS;
+                        boolean behind = false;
+                        for (Iterator<Subscriber> it = subscribers.iterator(); it.hasNext(); ) {
+                            Subscriber s = it.next();
+                            writingSince = System.nanoTime();
+                            writing = s;
+                            try {
+                                behind |= s.pump(ring, journal, now);
+                                wait = Math.min(wait, s.untilPing(now));
+                            } catch (IOException e) {
+                                it.remove();
+                                open.decrementAndGet();
+                                s.close();
+                            } finally {
+                                writing = null;
+                            }
+                        }
+                        if (!behind && joining.isEmpty()) ring.awaitPhase(phase, Math.max(1, wait));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    ring.unsubscribe();
+                }
+            }
+        }
+
+        private static final class Subscriber {
+            private final Closeable conn;
+            private final OutputStream out;
+            private final EventFilter filter;
+            private final EventRecord rec = new EventRecord();
+            private final JsonWriter w = new JsonWriter();
+            private final EventSink sink;
+            private long cursor;
+            private long lastWrite;
+            private boolean dirty;
+            private boolean opened;
+
+            Subscriber(Closeable conn, OutputStream raw, EventFilter filter, long cursor) {
+                this.conn = conn;
+                this.out = new BufferedOutputStream(raw, 8192);
+                this.filter = filter;
+                this.cursor = cursor;
+                this.sink = r -> {
+                    if (this.filter.test(r)) {
+                        writeStreamEvent(out, w, r);
+                        dirty = true;
+                    }
+                    return true;
+                };
+            }
+
+            // One pass: writes up to STREAM_BATCH events and flushes. True if more are already waiting.
+            boolean pump(EventRing ring, EventJournal journal, long now) throws IOException {
+                if (!opened) {
+                    out.write(PREAMBLE);
+                    opened = dirty = true;
+                }
+                int sent = 0;
+                while (sent < STREAM_BATCH) {
+                    if (!ring.read(cursor, rec)) {
+                        long oldest = ring.oldest();
+                        if (cursor >= oldest) break;
+                        if (journal != null && cursor >= journal.first() && cursor < journal.next()) {
+                            long from = cursor;
+                            cursor = journal.read(cursor, STREAM_BATCH - sent, sink);
+                            sent += (int) Math.min(STREAM_BATCH, cursor - from);
+                            continue;
+                        }
+                        out.write(("event: gap\ndata: {\"missed\":" + (oldest - cursor) + "}\n\n").getBytes(StandardCharsets.UTF_8));
+                        dirty = true;
+                        cursor = oldest;
+                        continue;
+                    }
+                    sink.accept(rec);
+                    cursor++;
+                    sent++;
+                }
+                if (!dirty && now - lastWrite >= TimeUnit.MILLISECONDS.toNanos(STREAM_HEARTBEAT_MILLIS)) {
+                    out.write(PING);
+                    dirty = true;
+                }
+                if (dirty) {
+                    out.flush();
+                    lastWrite = now;
+                    dirty = false;
+                }
+                return sent >= STREAM_BATCH;
+            }
+
+            long untilPing(long now) {
+                return STREAM_HEARTBEAT_MILLIS - TimeUnit.NANOSECONDS.toMillis(now - lastWrite);
             }
-        } catch (IOException e) {
-            System.err.println("Server: " + e.getMessage());
-        }
-    }
 
-    private void handleConnection(Socket client) {
-        try {
-            InputStream in = client.getInputStream();
-            OutputStream out = client.getOutputStream();
-            Request req = parseRequest(in);
-            byte[] body = dispatch(req);
-            sendResponse(out, body, req.path);
-        } catch (Exception ignored) {
-        } finally {
-            try { client.close(); } catch (IOException ignored) { }
+            void close() {
+                try { conn.close(); } catch (IOException ignored) { }
+            }
         }
     }
 
-    private Request parseRequest(InputStream in) throws IOException {
-        BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
-        String line = r.readLine();
-        if (line == null) return new Request("GET", "/", "", null);
-        String[] parts = line.split("\\s+", 3);
-        String method = parts.length > 0 ? parts[0] : "GET";
-        String path = parts.length > 1 ? parts[1].split("\\?")[0] : "/";
-        String query = "";
-        if (line.contains("?")) {
-            int q = line.indexOf('?');
-            int sp = line.indexOf(' ', q);
-            query = sp > 0 ? line.substring(q + 1, sp) : line.substring(q + 1);
-        }
-        while (true) {
-            line = r.readLine();
-            if (line == null || line.isEmpty()) break;
+    private static final class EventFilter {
+        static final EventFilter ALL = new EventFilter(null, -1);
+        final EventKind kind;
+        final long reportId;
+
+        private EventFilter(EventKind kind, long reportId) {
+            this.kind = kind;
+            this.reportId = reportId;
         }
-        String body = null;
-        if ("POST".equalsIgnoreCase(method)) {
-            StringBuilder sb = new StringBuilder();
-            char[] buf = new char[8192];
-            int n;
-            while (r.ready() && (n = r.read(buf)) != -1) sb.append(buf, 0, n);
-            body = sb.toString().trim();
+
+        static EventFilter parse(String type, String report) throws CG_Exception {
+            EventKind kind = null;
+            if (type != null && !type.isEmpty() && (kind = EventKind.named(type)) == null) throw new CG_Exception(CG_ErrorCodes.INVALID_EVENT_TYPE);
+            long id = -1;
+            if (report != null && !report.isEmpty() && (id = ReportIdGen.parse(report.trim())) < 0) throw new CG_Exception(CG_ErrorCodes.INVALID_REPORT_ID);
+            return kind == null && id < 0 ? ALL : new EventFilter(kind, id);
         }
-        return new Request(method, path, query, body);
-    }
 
-    private byte[] dispatch(Request req) {
-        if ("/".equals(req.path) || req.path.startsWith("/index")) return getIndexHtml();
-        if (req.path.startsWith(API_REPORTS)) return apiReports(req);
-        if (req.path.startsWith(API_SUBMIT)) return apiSubmit(req);
-        if (req.path.startsWith(API_CLAIM)) return apiClaim(req);
-        if (req.path.startsWith(API_STATS)) return apiStats();
-        if (req.path.equals(API_HEALTH)) return jsonBytes("{\"status\":\"ok\",\"ref\":\"" + WATCH_CHAIN_REF + "\"}");
-        if (req.path.startsWith("/report")) return apiReportById(req);
-        if (req.path.startsWith("/reports/unclaimed")) return apiReportsUnclaimed(req);
-        if (req.path.startsWith("/events")) return apiEvents(req);
-        return "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+        boolean test(EventRecord r) { return (kind == null || r.kind == kind) && (reportId < 0 || r.reportId == reportId); }
     }
 
-    private byte[] apiReportById(Request req) {
-        String id = param(req.query, "id");
-        if (id == null || id.isEmpty()) return jsonResponse("{\"error\":\"CG_MissingId\"}", 400);
-        try {
-            WatchReport r = engine.getReportById(id);
-            String json = "{\"id\":\"" + escape(r.getId()) + "\",\"body\":\"" + escape(r.getBody()) + "\",\"bountyWei\":" + r.getBountyWei() + ",\"from\":\"" + escape(r.getFrom()) + "\",\"claimed\":" + r.isClaimed() + (r.getClaimedBy() != null ? ",\"claimedBy\":\"" + escape(r.getClaimedBy()) + "\"" : "") + "}";
-            return jsonResponse(json);
-        } catch (CG_Exception e) {
-            return jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400);
-        }
+    private static final class EventLog {
+        static final int DEFAULT_CAPACITY = 1 << 16;
+        private static volatile EventRing ring = new EventRing(DEFAULT_CAPACITY, 0);
+
+        // Called once at startup, before any event is emitted; numbering continues from `start`.
+        static void configure(int capacity, long start) { ring = new EventRing(capacity, start); }
+
+        static long emit(EventKind kind, long reportId, String address) { return ring.append(kind, reportId, address); }
+
+        static long emitAll(EventKind kind, long[] reportIds, String[] addresses, int n) { return ring.appendAll(kind, reportIds, addresses, n); }
+
+        static EventRing ring() { return ring; }
+
+        // Sequence number the next event will get; every emitted event has a smaller one.
+        static long sequence() { return ring.head(); }
     }
 
-    private byte[] apiReportsUnclaimed(Request req) {
-        int offset = 0, limit = BATCH_QUERY_LIMIT;
-        for (String pair : req.query.split("&")) {
-            if (pair.startsWith("offset=")) try { offset = Integer.parseInt(pair.substring(7)); } catch (NumberFormatException e) { }
-            if (pair.startsWith("limit=")) try { limit = Math.min(BATCH_QUERY_LIMIT, Integer.parseInt(pair.substring(6))); } catch (NumberFormatException e) { }
+    // Fixed-capacity multi-producer ring of typed events held column-wise in primitive arrays, so an
+    // emit allocates nothing. A producer claims a sequence number with one getAndIncrement, waits for
+    // the slot's previous lap (seq - capacity) to be published, marks the slot as being written, fills
+    // the columns and then publishes the sequence as the slot's tag. A slot's tag therefore only moves
+    // forward and at most one producer writes it at a time, however far producers lap each other.
+    // Readers never lock: they read the tag, the columns, then the tag again, and treat a slot whose
+    // tag is not the sequence they asked for as not yet published or already overwritten.
+    // Stream subscribers park on a phaser that one notifier thread advances, so an emitter's wake-up
+    // cost is a flag CAS and one unpark however many subscribers are waiting.
+    private static final class EventRing {
+        private final AtomicLongArray tags;
+        private final byte[] kinds;
+        private final long[] times;
+        private final long[] reportIds;
+        private final String[] addresses;
+        private final int mask;
+        private final long start;
+        private final AtomicLong next;
+        private final AtomicInteger subscribers = new AtomicInteger();
+        private final AtomicBoolean signalled = new AtomicBoolean();
+        private final Phaser published = new Phaser(1);
+        private volatile Thread notifier;
+
+        EventRing(int capacity, long start) {
+            int size = Integer.highestOneBit(Math.max(2, Math.min(1 << 30, capacity) - 1)) << 1;
+            this.tags = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) tags.lazySet(i, -1);
+            this.kinds = new byte[size];
+            this.times = new long[size];
+            this.reportIds = new long[size];
+            this.addresses = new String[size];
+            this.mask = size - 1;
+            this.start = start;
+            this.next = new AtomicLong(start);
         }
-        try {
-            List<WatchReport> list = engine.listUnclaimed(offset, limit);
-            StringBuilder sb = new StringBuilder("{\"reports\":[");
-            for (int i = 0; i < list.size(); i++) {
-                if (i > 0) sb.append(',');
-                WatchReport r = list.get(i);
-                sb.append("{\"id\":\"").append(escape(r.getId())).append("\",\"body\":\"").append(escape(r.getBody())).append("\",\"bountyWei\":").append(r.getBountyWei()).append("}");
-            }
-            sb.append("]}");
-            return jsonResponse(sb.toString());
-        } catch (CG_Exception e) {
-            return jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400);
+
+        long append(EventKind kind, long reportId, String address) {
+            long seq = next.getAndIncrement();
+            int i = claim(seq);
+            kinds[i] = (byte) kind.ordinal();
+            times[i] = System.currentTimeMillis();
+            reportIds[i] = reportId;
+            addresses[i] = address;
+            tags.set(i, seq);
+            if (subscribers.get() > 0 && !signalled.get() && signalled.compareAndSet(false, true)) LockSupport.unpark(notifier);
+            return seq;
         }
-    }
 
-    private byte[] apiEvents(Request req) {
-        int n = 50;
-        for (String pair : req.query.split("&")) {
-            if (pair.startsWith("n=")) try { n = Math.min(200, Integer.parseInt(pair.substring(2))); } catch (NumberFormatException e) { }
+        // Claims n consecutive sequences with one getAndAdd and wakes subscribers once; returns the first.
+        long appendAll(EventKind kind, long[] ids, String[] from, int n) {
+            long first = next.getAndAdd(n);
+            byte k = (byte) kind.ordinal();
+            long now = System.currentTimeMillis();
+            for (int e = 0; e < n; e++) {
+                long seq = first + e;
+                int i = claim(seq);
+                kinds[i] = k;
+                times[i] = now;
+                reportIds[i] = ids[e];
+                addresses[i] = from[e];
+                tags.set(i, seq);
+            }
+            if (n > 0 && subscribers.get() > 0 && !signalled.get() && signalled.compareAndSet(false, true)) LockSupport.unpark(notifier);
+            return first;
         }
-        List<String> events = EventLog.getRecent(n);
-        StringBuilder sb = new StringBuilder("{\"events\":[");
-        for (int i = 0; i < events.size(); i++) {
-            if (i > 0) sb.append(',');
-            sb.append("\"").append(escape(events.get(i))).append("\"");
+
+        // Waits out a producer still writing the slot's previous lap, then marks the slot as being written.
+        private int claim(long seq) {
+            int i = (int) seq & mask;
+            long previous = seq - capacity() >= start ? seq - capacity() : -1;
+            while (tags.get(i) != previous) Thread.yield();
+            tags.set(i, -1);
+            java.lang.invoke.VarHandle.storeStoreFence();
+            return i;
         }
-        sb.append("]}");
-        return jsonResponse(sb.toString());
-    }
 
-    private byte[] apiReports(Request req) {
-        int offset = 0, limit = BATCH_QUERY_LIMIT;
-        for (String pair : req.query.split("&")) {
-            if (pair.startsWith("offset=")) try { offset = Integer.parseInt(pair.substring(7)); } catch (NumberFormatException e) { }
-            if (pair.startsWith("limit=")) try { limit = Math.min(BATCH_QUERY_LIMIT, Integer.parseInt(pair.substring(6))); } catch (NumberFormatException e) { }
+        // Fills rec with the event at seq; false if it is not yet published or was overwritten.
+        boolean read(long seq, EventRecord rec) {
+            int i = (int) seq & mask;
+            if (tags.get(i) != seq) return false;
+            byte kind = kinds[i];
+            long at = times[i];
+            long reportId = reportIds[i];
+            String address = addresses[i];
+            java.lang.invoke.VarHandle.loadLoadFence();
+            if (tags.get(i) != seq) return false;
+            rec.set(seq, EventKind.of(kind), at, reportId, address);
+            return true;
         }
-        try {
-            List<WatchReport> list = engine.listReports(offset, limit);
-            StringBuilder sb = new StringBuilder("{\"reports\":[");
-            for (int i = 0; i < list.size(); i++) {
-                if (i > 0) sb.append(',');
-                WatchReport r = list.get(i);
-                sb.append("{\"id\":\"").append(escape(r.getId())).append("\",\"body\":\"").append(escape(r.getBody())).append("\",\"bountyWei\":").append(r.getBountyWei()).append(",\"claimed\":").append(r.isClaimed()).append("}");
-            }
-            sb.append("]}");
-            return jsonResponse(sb.toString());
-        } catch (CG_Exception e) {
-            return jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400);
+
+        // Sequences of the newest n events that pass the filter, oldest first.
+        long[] recent(int n, EventFilter filter, EventRecord scratch) {
+            long[] found = new long[Math.max(0, Math.min(n, capacity()))];
+            int k = found.length;
+            for (long seq = next.get() - 1, oldest = oldest(); k > 0 && seq >= oldest; seq--) {
+                if (read(seq, scratch) && filter.test(scratch)) found[--k] = seq;
+            }
+            return Arrays.copyOfRange(found, k, found.length);
         }
-    }
 
-    private byte[] apiSubmit(Request req) {
-        String body = param(req.query, "body");
-        if (req.body != null && req.body.contains("body=")) body = paramFromBody(req.body, "body");
-        String from = param(req.query, "from");
-        if (req.body != null && req.body.contains("from=")) from = paramFromBody(req.body, "from");
-        String bountyStr = param(req.query, "bountyWei");
-        if (req.body != null && req.body.contains("bountyWei=")) bountyStr = paramFromBody(req.body, "bountyWei");
-        int bountyWei = 0;
-        try { if (bountyStr != null && !bountyStr.isEmpty()) bountyWei = Integer.parseInt(bountyStr); } catch (NumberFormatException e) { }
-        try {
-            String id = engine.submitReport(body != null ? body : "", from != null ? from : "0x0", bountyWei);
-            return jsonResponse("{\"reportId\":\"" + escape(id) + "\"}");
-        } catch (CG_Exception e) {
-            return jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400);
+        synchronized void subscribe() {
+            if (notifier == null) {
+                Thread t = new Thread(() -> {
+                    while (true) {
+                        LockSupport.park(this);
+                        if (signalled.getAndSet(false)) published.arrive();
+                    }
+                }, "cg-event-notify");
+                t.setDaemon(true);
+                t.start();
+                notifier = t;
+            }
+            subscribers.incrementAndGet();
         }
-    }
 
-    private byte[] apiClaim(Request req) {
-        String id = param(req.query, "reportId");
-        if (req.body != null && req.body.contains("reportId=")) id = paramFromBody(req.body, "reportId");
-        String claimer = param(req.query, "claimer");
-        if (req.body != null && req.body.contains("claimer=")) claimer = paramFromBody(req.body, "claimer");
-        try {
-            engine.claimBounty(id != null ? id : "", claimer != null ? claimer : "0x0");
-            return jsonResponse("{\"ok\":true}");
-        } catch (CG_Exception e) {
-            return jsonResponse("{\"error\":\"" + e.getCode() + "\"}", 400);
+        void unsubscribe() { subscribers.decrementAndGet(); }
+
+        // Wakes waiting subscribers as an emit would, for work that is not a new event.
+        void wake() {
+            if (subscribers.get() > 0 && !signalled.get() && signalled.compareAndSet(false, true)) LockSupport.unpark(notifier);
         }
-    }
 
-    private byte[] apiStats() {
-        LedgerStats s = engine.getStats();
-        String json = "{\"reportCount\":" + s.getReportCount() + ",\"totalBountyWei\":" + s.getTotalBountyWei() + ",\"claimedCount\":" + s.getClaimedCount() + "}";
-        return jsonResponse(json);
-    }
+        // Read the phase first, then check for work, then wait on it: an emit or wake() in between is not lost.
+        int phase() { return published.getPhase(); }
 
-    private String param(String query, String key) {
-        for (String pair : query.split("&")) {
-            if (pair.startsWith(key + "=")) {
-                try { return URLDecoder.decode(pair.substring(key.length() + 1), StandardCharsets.UTF_8.name()); } catch (Exception e) { return pair.substring(key.length() + 1); }
+        void awaitPhase(int phase, long millis) throws InterruptedException {
+            try {
+                published.awaitAdvanceInterruptibly(phase, millis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ignored) {
             }
         }
-        return null;
-    }
 
-    private String paramFromBody(String body, String key) {
-        for (String pair : body.split("&")) {
-            if (pair.startsWith(key + "=")) {
-                try { return URLDecoder.decode(pair.substring(key.length() + 1), StandardCharsets.UTF_8.name()); } catch (Exception e) { return pair.substring(key.length() + 1); }
+        // Waits until seq has been published (or lapped); false if the timeout passes first.
+        boolean await(long seq, long millis) throws InterruptedException {
+            int phase = published.getPhase();
+            if (tags.get((int) seq & mask) >= seq) return true;
+            try {
+                published.awaitAdvanceInterruptibly(phase, millis, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (TimeoutException timeout) {
+                return false;
             }
         }
-        return null;
-    }
 
-    private byte[] jsonResponse(String body) { return jsonResponse(body, 200); }
-    private byte[] jsonResponse(String body, int status) {
-        byte[] b = body.getBytes(StandardCharsets.UTF_8);
-        String statusLine = status == 200 ? "200 OK" : "400 Bad Request";
-        String header = "HTTP/1.1 " + statusLine + "\r\nContent-Type: application/json; charset=utf-8\r\nContent-Length: " + b.length + "\r\nConnection: close\r\n\r\n";
-        return concat(header.getBytes(StandardCharsets.UTF_8), b);
-    }
-
-    private byte[] jsonBytes(String s) {
-        byte[] b = s.getBytes(StandardCharsets.UTF_8);
-        String h = "HTTP/1.1 200 OK\r\nContent-Type: application/json; charset=utf-8\r\nContent-Length: " + b.length + "\r\nConnection: close\r\n\r\n";
-        return concat(h.getBytes(StandardCharsets.UTF_8), b);
-    }
+        long head() { return next.get(); }
+        int capacity() { return mask + 1; }
 
-    private byte[] concat(byte[] a, byte[] b) {
-        byte[] c = new byte[a.length + b.length];
-        System.arraycopy(a, 0, c, 0, a.length);
-        System.arraycopy(b, 0, c, a.length, b.length);
-        return c;
+        // Oldest sequence the ring can still hold.
+        long oldest() { return Math.max(start, next.get() - capacity()); }
     }
 
-    private void sendResponse(OutputStream out, byte[] body, String path) throws IOException {
-        out.write(body);
-        out.flush();
+    private static interface EventSink {
+        // Returns false to refuse the record and stop the read.
+        boolean accept(EventRecord r) throws IOException;
     }
 
-    private static String escape(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "");
-    }
+    // On-disk event history in rolling segments named after the sequence number of their first event.
+    // Each segment is a mapped data file of [len][crc][kind:1][at:8][reportId:8][address utf-8] records
+    // plus a mapped index of record offsets, so a sequence number resolves with one floor lookup and
+    // one index read. Events the writer fell too far behind to copy become one EVENTS_DROPPED record
+    // and a new segment starts after them, so the sequence numbers they had are a hole between two
+    // segments that readers step over.
+    // A single writer thread follows the event ring like a stream subscriber; emitters never touch the
+    // disk. Closed segments are dropped oldest-first once the size or age retention is exceeded.
+    private static final class EventJournal {
+        private static final int MAGIC = 0x43474556;
+        private static final int VERSION = 2;
+        private static final int HEADER_BYTES = 16;
+        private static final int SEGMENT_BYTES = 16 << 20;
+        private static final int INDEX_ENTRIES = 1 << 18;
+        private static final int FIXED_BYTES = 17;
+        private static final int MAX_ADDRESS = 1 << 12;
+        private static final long IDLE_MILLIS = 1_000;
 
-    private byte[] getIndexHtml() {
-        return getVigilanteWatchHtml().getBytes(StandardCharsets.UTF_8);
-    }
+        private static final class Segment {
+            final long base;
+            final File data, index;
+            final MappedByteBuffer bytes, offsets;
+            volatile int count;
+            volatile long closedAt;
+            int position = HEADER_BYTES;
 
-    private static String getVigilanteWatchHtml() {
-        return "<!DOCTYPE html><html lang=\"en\"><head><meta charset=\"UTF-8\"><meta name=\"viewport\" content=\"width=device-width, initial-scale=1\"><title>VigilanteWatch — Cigilante</title><style>" + getVigilanteWatchCss() + "</style></head><body><div class=\"app\"><header><h1>VigilanteWatch</h1><p class=\"tag\">Cigilante bounty board</p></header><main><section class=\"card\"><h2>Submit report</h2><textarea id=\"reportBody\" placeholder=\"Report body...\" maxlength=\"2048\"></textarea><input id=\"bountyWei\" type=\"number\" min=\"0\" placeholder=\"Bounty (wei)\"><button id=\"submitBtn\">Submit</button></section><section class=\"card\"><h2>Reports</h2><div id=\"reportList\"></div><button id=\"refreshBtn\">Refresh</button></section><section class=\"card\"><h2>Stats</h2><pre id=\"stats\"></pre></section></main><footer>Cigilante — Watch net. Not legal advice.</footer></div><script>" + getVigilanteWatchJs() + "</script></body></html>";
-    }
+            Segment(File dir, long base) throws IOException {
+                this.base = base;
+                this.data = new File(dir, String.format("events-%020d.log", base));
+                this.index = new File(dir, String.format("events-%020d.idx", base));
+                boolean fresh = !data.exists();
+                this.bytes = map(data, SEGMENT_BYTES);
+                this.offsets = map(index, INDEX_ENTRIES * 4L);
+                if (fresh) {
+                    bytes.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, base);
+                } else if (bytes.getInt(0) != MAGIC || bytes.getLong(8) != base) {
+                    throw new IOException("bad event segment " + data);
+                } else if (bytes.getInt(4) != VERSION) {
+                    throw new IOException(data + " has event format " + bytes.getInt(4) + ", expected " + VERSION + "; move the directory aside");
+                }
+            }
 
-    private static String getVigilanteWatchCss() {
-        return "*{box-sizing:border-box}body{margin:0;font-family:system-ui,sans-serif;background:#0d0c10;color:#e0dce8;min-height:100vh}.app{max-width:640px;margin:0 auto;padding:1.5rem}.app header{text-align:center;margin-bottom:1.5rem}.app h1{font-size:1.75rem;color:#a78bfa}.app .tag{color:#888;font-size:0.9rem}.card{background:rgba(30,28,40,0.95);border:1px solid #3d3a4a;border-radius:12px;padding:1.25rem;margin-bottom:1rem}.card h2{font-size:1rem;color:#a78bfa;margin:0 0 0.75rem 0}#reportBody{width:100%;min-height:80px;padding:0.75rem;border:1px solid #3d3a4a;border-radius:8px;background:#1a1820;color:#e0dce8;font-size:0.95rem}#bountyWei{width:120px;padding:0.5rem;margin:0.5rem 0.5rem 0 0;border:1px solid #3d3a4a;border-radius:6px;background:#1a1820;color:#e0dce8}.card button{padding:0.5rem 1rem;background:#7c3aed;border:none;border-radius:8px;color:#fff;font-weight:600;cursor:pointer;margin-top:0.5rem}.card button:hover{background:#6d28d9}#reportList{margin:0.5rem 0;font-size:0.9rem}#reportList .item{margin-bottom:0.5rem;padding:0.5rem;background:rgba(0,0,0,0.2);border-radius:6px}#stats{font-size:0.85rem;color:#aaa}footer{text-align:center;margin-top:1.5rem;color:#666;font-size:0.8rem}";
-    }
+            private static MappedByteBuffer map(File f, long size) throws IOException {
+                try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                    if (raf.length() != size) raf.setLength(size);
+                    return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                }
+            }
 
-    private static String getVigilanteWatchJs() {
-        return "var API='/reports';var SUBMIT='/submit';var CLAIM='/claim';var STATS='/stats';function qs(s){return document.querySelector(s)}function qsa(s){return document.querySelectorAll(s)}function refreshReports(){fetch(API+'?limit=50').then(function(r){return r.json()}).then(function(d){var el=qs('#reportList');el.innerHTML='';(d.reports||[]).forEach(function(r){var div=document.createElement('div');div.className='item';div.innerHTML='<strong>'+r.id+'</strong> | '+r.body.substring(0,80)+'... | bounty: '+r.bountyWei+(r.claimed?' (claimed)':'')+' <button data-id=\"'+r.id+'\">Claim</button>';el.appendChild(div)});qsa('#reportList button').forEach(function(btn){btn.onclick=function(){fetch(CLAIM+'?reportId='+encodeURIComponent(btn.getAttribute('data-id'))+'&claimer=0x0',{method:'POST'}).then(function(r){return r.json()}).then(function(d){if(d.ok)refreshReports();if(d.error)alert(d.error)})}})})}function refreshStats(){fetch(STATS).then(function(r){return r.json()}).then(function(d){qs('#stats').textContent='Reports: '+d.reportCount+' | Total bounty: '+d.totalBountyWei+' | Claimed: '+d.claimedCount})}qs('#submitBtn').onclick=function(){var body=qs('#reportBody').value.trim();var bounty=qs('#bountyWei').value||'0';fetch(SUBMIT,{method:'POST',headers:{'Content-Type':'application/x-www-form-urlencoded'},body:'body='+encodeURIComponent(body)+'&bountyWei='+encodeURIComponent(bounty)+'&from=0x0'}).then(function(r){return r.json()}).then(function(d){if(d.reportId){qs('#reportBody').value='';qs('#bountyWei').value='';refreshReports();refreshStats()}if(d.error)alert(d.error)})};qs('#refreshBtn').onclick=function(){refreshReports();refreshStats()};refreshReports();refreshStats();";
-    }
+            // Rebuilds the index from the records that pass their CRC and clears anything after them.
+            void recover() {
+                CRC32 crc = new CRC32();
+                int pos = HEADER_BYTES, n = 0;
+                while (n < INDEX_ENTRIES && pos + 8 <= SEGMENT_BYTES) {
+                    int len = bytes.getInt(pos);
+                    if (len <= 0 || len > SEGMENT_BYTES - pos - 8) break;
+                    crc.reset();
+                    crc.update(bytes.slice(pos + 8, len));
+                    if ((int) crc.getValue() != bytes.getInt(pos + 4)) break;
+                    offsets.putInt(n++ * 4, pos);
+                    pos += 8 + len;
+                }
+                for (int i = pos; i < SEGMENT_BYTES; i++) bytes.put(i, (byte) 0);
+                position = pos;
+                count = n;
+            }
 
-    private static final class Request {
-        final String method, path, query, body;
-        Request(String method, String path, String query, String body) { this.method = method; this.path = path; this.query = query; this.body = body; }
-    }
+            // Records in a closed segment: its index entries are filled in order and never 0.
+            int indexed() {
+                int lo = 0, hi = INDEX_ENTRIES;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (offsets.getInt(mid * 4) != 0) lo = mid + 1;
+                    else hi = mid;
+                }
+                return lo;
+            }
 
-    // --- Exceptions (unique codes) ---
-    public static final class CG_Exception extends RuntimeException {
-        private final String code;
-        public CG_Exception(String code) { super(code); this.code = code; }
-        public String getCode() { return code; }
-    }
+            void delete() {
+                if (!data.delete() || !index.delete()) System.err.println("Event journal: cannot delete " + data);
+            }
+        }
 
-    private static final class CigilanteEngine {
-        private final WatchLedger ledger;
+        private final File dir;
+        private final long retentionBytes, retentionMillis;
+        private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+        private final CRC32 crc = new CRC32();
+        private Segment active;
+        private volatile long next;
 
-        CigilanteEngine(WatchLedger ledger) { this.ledger = ledger; }
+        private EventJournal(File dir, long retentionBytes, long retentionMillis) {
+            this.dir = dir;
+            this.retentionBytes = retentionBytes;
+            this.retentionMillis = retentionMillis;
+        }
 
-        String submitReport(String body, String from, int bountyWei) throws CG_Exception {
-            if (body == null) body = "";
-            body = body.trim();
-            if (body.length() > MAX_REPORT_BODY_LEN) throw new CG_Exception("CG_ReportTooLong");
-            if (ledger.reportCount() >= MAX_REPORTS) throw new CG_Exception("CG_ReportCapReached");
-            if (bountyWei < 0 || bountyWei > MAX_BOUNTY_WEI_SCALE) throw new CG_Exception("CG_BountyOutOfRange");
-            return ledger.appendReport(body, from, bountyWei);
+        static EventJournal open(File dir, long retentionBytes, long retentionMillis) throws IOException {
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+            EventJournal j = new EventJournal(dir, retentionBytes, retentionMillis);
+            String[] names = dir.list((d, n) -> n.startsWith("events-") && n.endsWith(".log"));
+            long[] bases = new long[names == null ? 0 : names.length];
+            for (int i = 0; i < bases.length; i++) bases[i] = Long.parseLong(names[i].substring(7, names[i].length() - 4));
+            Arrays.sort(bases);
+            for (int i = 0; i < bases.length; i++) {
+                Segment s = new Segment(dir, bases[i]);
+                if (i < bases.length - 1) {
+                    s.count = s.indexed();
+                    if (s.count > 0) {
+                        int last = s.offsets.getInt((s.count - 1) * 4);
+                        s.position = last + 8 + s.bytes.getInt(last);
+                    }
+                    s.closedAt = s.data.lastModified();
+                }
+                j.segments.put(s.base, s);
+            }
+            if (j.segments.isEmpty()) j.segments.put(0L, new Segment(dir, 0));
+            j.active = j.segments.lastEntry().getValue();
+            j.active.recover();
+            j.next = j.active.base + j.active.count;
+            return j;
         }
 
-        void claimBounty(String reportId, String claimer) throws CG_Exception {
-            if (reportId == null || reportId.trim().isEmpty()) throw new CG_Exception("CG_InvalidReportId");
-            ledger.claim(reportId.trim(), claimer != null ? claimer : "0x0");
+        long first() { return segments.firstKey(); }
+        long next() { return next; }
+
+        // Starts the writer thread that copies every event the ring publishes from `next` on.
+        void follow(EventRing ring) {
+            ring.subscribe();
+            Thread t = new Thread(() -> {
+                EventRecord rec = new EventRecord();
+                long cursor = next;
+                while (true) {
+                    try {
+                        if (ring.read(cursor, rec)) {
+                            append(rec);
+                            cursor++;
+                        } else if (cursor < ring.oldest()) {
+                            long resume = ring.oldest();
+                            rec.set(cursor, EventKind.EVENTS_DROPPED, System.currentTimeMillis(), resume - cursor, null);
+                            append(rec);
+                            if (resume > cursor + 1) roll(resume);
+                            cursor = resume;
+                        } else if (!ring.await(cursor, IDLE_MILLIS)) {
+                            active.bytes.force();
+                            active.offsets.force();
+                            retain();
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Event journal: " + e.getMessage());
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "cg-event-journal");
+            t.setDaemon(true);
+            t.start();
         }
 
-        List<WatchReport> listReports(int offset, int limit) throws CG_Exception {
-            if (limit > BATCH_QUERY_LIMIT) throw new CG_Exception("CG_BatchTooLarge");
-            return ledger.list(offset, limit);
+        // Writer thread only. The volatile store to `next` publishes the record to readers.
+        private void append(EventRecord r) throws IOException {
+            byte[] address = r.address != null ? r.address.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            int len = FIXED_BYTES + Math.min(address.length, MAX_ADDRESS);
+            Segment s = active;
+            if (s.count == INDEX_ENTRIES || s.position + 8 + len > SEGMENT_BYTES) s = roll(s.base + s.count);
+            int pos = s.position;
+            s.bytes.put(pos + 8, (byte) r.kind.ordinal()).putLong(pos + 9, r.at).putLong(pos + 17, r.reportId).put(pos + 8 + FIXED_BYTES, address, 0, len - FIXED_BYTES);
+            crc.reset();
+            crc.update(s.bytes.slice(pos + 8, len));
+            s.bytes.putInt(pos + 4, (int) crc.getValue()).putInt(pos, len);
+            s.offsets.putInt(s.count * 4, pos);
+            s.position = pos + 8 + len;
+            s.count++;
+            next = s.base + s.count;
         }
 
-        LedgerStats getStats() {
-            return ledger.stats();
+        // Starts a segment at sequence base; anything between the old segment's end and base is a hole.
+        private Segment roll(long base) throws IOException {
+            Segment old = active;
+            old.bytes.force();
+            old.offsets.force();
+            old.closedAt = System.currentTimeMillis();
+            Segment s = new Segment(dir, base);
+            segments.put(s.base, s);
+            active = s;
+            next = base;
+            retain();
+            return s;
         }
 
-        WatchReport getReportById(String reportId) throws CG_Exception {
-            WatchReport r = ledger.getById(reportId);
-            if (r == null) throw new CG_Exception("CG_ReportNotFound");
-            return r;
+        private void retain() {
+            long total = 0;
+            for (Segment s : segments.values()) total += s.position;
+            long now = System.currentTimeMillis();
+            for (Segment s : segments.values()) {
+                if (s == active || (total <= retentionBytes && now - s.closedAt <= retentionMillis)) break;
+                segments.remove(s.base);
+                total -= s.position;
+                s.delete();
+            }
         }
 
-        List<WatchReport> listUnclaimed(int offset, int limit) throws CG_Exception {
-            if (limit > BATCH_QUERY_LIMIT) throw new CG_Exception("CG_BatchTooLarge");
-            return ledger.listUnclaimed(offset, limit);
+        // Hands up to max records from `from` on to the sink, decoded straight out of the mapped
+        // segments into one reused record. Returns the sequence of the first record not taken.
+        long read(long from, int max, EventSink sink) throws IOException {
+            EventRecord rec = new EventRecord();
+            long seq = Math.max(from, first()), end = next;
+            int n = 0;
+            while (n < max && seq < end) {
+                Map.Entry<Long, Segment> e = segments.floorEntry(seq);
+                if (e == null) {
+                    seq = first();
+                    continue;
+                }
+                Segment s = e.getValue();
+                if (seq - s.base >= s.count) {
+                    Long after = segments.higherKey(s.base);
+                    if (after == null) break;
+                    seq = after;
+                    continue;
+                }
+                int pos = s.offsets.getInt((int) (seq - s.base) * 4);
+                int len = s.bytes.getInt(pos);
+                String address = null;
+                if (len > FIXED_BYTES) {
+                    byte[] b = new byte[len - FIXED_BYTES];
+                    s.bytes.get(pos + 8 + FIXED_BYTES, b);
+                    address = new String(b, StandardCharsets.UTF_8);
+                }
+                rec.set(seq, EventKind.of(s.bytes.get(pos + 8)), s.bytes.getLong(pos + 9), s.bytes.getLong(pos + 17), address);
+                if (!sink.accept(rec)) break;
+                seq++;
+                n++;
+            }
+            return seq;
         }
     }
 
-    private static final class WatchReport {
-        private final String id;
-        private final String body;
-        private final int bountyWei;
-        private final String from;
-        private volatile boolean claimed;
-        private volatile String claimedBy;
+    // --- Benchmarks: java Cigilante --bench [case] (run with -Xmx4g for the 5M sizes) ---
+    // Hand-rolled in place of JMH, which this single-file tree has no build to pull in. There is no fork
+    // per case, so run one case per JVM (--bench <case>) when comparing numbers across changes.
+    private static final class LedgerBench {
+        private static final int WARMUP_ROUNDS = 3;
+        private static final int ROUNDS = 5;
+        private static final int ROUND_MILLIS = 500;
 
-        WatchReport(String id, String body, int bountyWei, String from) {
-            this.id = id;
-            this.body = body;
-            this.bountyWei = bountyWei;
-            this.from = from;
-            this.claimed = false;
-            this.claimedBy = null;
+        static void run(String[] args) {
+            String which = args.length > 1 ? args[1] : "all";
+            if ("all".equals(which) || "lookup".equals(which)) lookup();
+            if ("all".equals(which) || "claim".equals(which)) claimContention();
+            if ("all".equals(which) || "wal".equals(which)) journalThroughput();
+            if ("all".equals(which) || "submit".equals(which)) submitScaling();
+            if ("all".equals(which) || "paging".equals(which)) keysetTail();
+            if ("all".equals(which) || "recovery".equals(which)) recovery(args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000);
+            if ("all".equals(which) || "events".equals(which)) eventLog();
+            if ("all".equals(which) || "event-journal".equals(which)) eventJournal();
+            if ("all".equals(which) || "http".equals(which)) httpLoad(args.length > 2 ? Integer.parseInt(args[2]) : 1_000);
+            if ("all".equals(which) || "json".equals(which)) jsonAllocation();
+            if ("all".equals(which) || "ids".equals(which)) reportIds();
         }
 
-        String getId() { return id; }
-        String getBody() { return body; }
-        int getBountyWei() { return bountyWei; }
-        String getFrom() { return from; }
-        boolean isClaimed() { return claimed; }
-        String getClaimedBy() { return claimedBy; }
-        void setClaimed(String by) { this.claimed = true; this.claimedBy = by; }
-    }
+        // Self-check, not a timing: which id texts claim and lookup treat as found, missing or malformed.
+        static void reportIds() {
+            WatchLedger ledger = new WatchLedger(16);
+            CigilanteEngine engine = new CigilanteEngine(ledger);
+            long millis = (ReportIdGen.EPOCH_SECOND + 1_000) * 1000;
+            ledger.restoreLegacy(0, 0, millis, "legacy", "0x0", 0);
+            long id = ledger.appendReport("packed", "0x0", 0);
+            String packed = ReportIdGen.format(id);
+            String[][] cases = {
+                { packed, "found" }, { "CG-" + packed.substring(3).toUpperCase(), "found" }, { " " + packed + " ", "found" },
+                { "CG-" + millis + "-1", "found" }, { "CG-" + millis + "-9", "missing" }, { ReportIdGen.format(id + 5), "missing" },
+                { "CG-zz", "malformed" }, { packed.substring(0, packed.length() - 1), "malformed" }, { packed + "0", "malformed" },
+                { "CG-00000000000000zz", "malformed" }, { "XX" + packed.substring(2), "malformed" }, { "CG-" + millis + "-0", "malformed" },
+                { "CG-" + millis + "-", "malformed" }, { "CG--1", "malformed" }, { "", "malformed" },
+            };
+            System.out.println("report id parsing (claim and /report)");
+            int failed = 0;
+            for (String[] c : cases) {
+                String got;
+                try {
+                    engine.getReportById(c[0]);
+                    got = "found";
+                } catch (CG_Exception e) {
+                    got = CG_ErrorCodes.INVALID_REPORT_ID.equals(e.getCode()) ? "malformed" : "missing";
+                }
+                if (!got.equals(c[1])) failed++;
+                System.out.printf("  %-4s %-26s %s%n", got.equals(c[1]) ? "ok" : "FAIL", "\"" + c[0] + "\"", got);
+            }
+            System.out.println(failed == 0 ? "  all " + cases.length + " cases ok" : "  " + failed + " of " + cases.length + " cases FAILED");
+        }
 
-    private static final class WatchLedger {
-        private final List<WatchReport> reports = new CopyOnWriteArrayList<>();
-        private final AtomicInteger seq = new AtomicInteger(0);
-        private final AtomicLong totalBounty = new AtomicLong(0);
-        private final AtomicInteger claimedCount = new AtomicInteger(0);
+        static void lookup() {
+            System.out.println("getById / claim miss latency by ledger size (ns/op)");
+            for (int size : new int[] { 500, 5_000, 50_000, 500_000, 5_000_000 }) {
+                WatchLedger ledger = new WatchLedger(size);
+                long[] ids = seed(ledger, size);
+                int ops = 2_000_000;
+                long sink = 0;
+                for (int i = 0; i < ops; i++) sink += ledger.getById(ids[(int) ((i * 2654435761L) % size)]).getBountyWei();
+                long t0 = System.nanoTime();
+                for (int i = 0; i < ops; i++) sink += ledger.getById(ids[(int) ((i * 40503L + 17) % size)]).getBountyWei();
+                long hit = (System.nanoTime() - t0) / ops;
+                t0 = System.nanoTime();
+                for (int i = 0; i < ops; i++) if (ledger.getById(ReportIdGen.pack(0, 0, i % 1000)) == null) sink++;
+                long miss = (System.nanoTime() - t0) / ops;
+                System.out.printf("  %,10d reports  hit %5d  miss %5d  (%d)%n", size, hit, miss, sink & 1);
+            }
+        }
 
-        String appendReport(String body, String from, int bountyWei) {
-            String id = "CG-" + System.currentTimeMillis() + "-" + seq.incrementAndGet();
-            WatchReport r = new WatchReport(id, body, bountyWei, from);
-            reports.add(r);
-            totalBounty.addAndGet(bountyWei);
-            EventLog.emit(WatchEvent.REPORT_SUBMITTED, id + "|" + from);
-            return id;
+        // 64+ claimers race over the same ids; every report must end up with exactly one winner.
+        static void claimContention() {
+            int reports = 100_000;
+            System.out.println("claim contention: " + reports + " reports, every thread claims every id");
+            for (int threads : new int[] { 1, 8, 64, 128 }) {
+                WatchLedger ledger = new WatchLedger(reports);
+                long[] ids = seed(ledger, reports);
+                AtomicInteger wins = new AtomicInteger();
+                CountDownLatch start = new CountDownLatch(1);
+                Thread[] ts = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    String claimer = "0x" + Integer.toHexString(t);
+                    int stride = t;
+                    ts[t] = new Thread(() -> {
+                        try { start.await(); } catch (InterruptedException e) { return; }
+                        for (int i = 0; i < ids.length; i++) {
+                            try {
+                                ledger.claim(ids[(i + stride) % ids.length], claimer);
+                                wins.incrementAndGet();
+                            } catch (CG_Exception ignored) { }
+                        }
+                    });
+                    ts[t].start();
+                }
+                long t0 = System.nanoTime();
+                start.countDown();
+                for (Thread t : ts) {
+                    try { t.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                }
+                long ns = System.nanoTime() - t0;
+                long attempts = (long) threads * reports;
+                System.out.printf("  %4d threads  %,12d attempts  %6d ns/attempt  winners %d/%d claimedCount %d%n",
+                    threads, attempts, ns / attempts, wins.get(), reports, ledger.stats().getClaimedCount());
+            }
         }
 
-        void claim(String reportId, String claimer) throws CG_Exception {
-            WatchReport r = reports.stream().filter(x -> reportId.equals(x.getId())).findFirst().orElse(null);
-            if (r == null) throw new CG_Exception("CG_ReportNotFound");
-            if (r.isClaimed()) throw new CG_Exception("CG_AlreadyClaimed");
-            synchronized (r) {
-                if (r.isClaimed()) throw new CG_Exception("CG_AlreadyClaimed");
-                r.setClaimed(claimer);
+        // Durable submits per second for each journal mode; BATCH should approach ASYNC as writers grow.
+        static void journalThroughput() {
+            System.out.println("journaled submits/s by durability mode");
+            for (Durability mode : Durability.values()) {
+                for (int threads : new int[] { 1, 16, 64 }) {
+                    File dir = null;
+                    try {
+                        dir = java.nio.file.Files.createTempDirectory("cg-wal").toFile();
+                        WatchLedger ledger = new WatchLedger(MAX_REPORTS_LIMIT);
+                        LedgerJournal journal = LedgerJournal.open(dir, mode, ledger);
+                        ledger.attachJournal(journal);
+                        long ops = timed(threads, 2_000, () -> ledger.appendReport("bench report body", "0xbench", 1));
+                        journal.close();
+                        System.out.printf("  %-5s %3d threads  %,10d submits/s%n", mode, threads, ops / 2);
+                    } catch (IOException e) {
+                        System.out.println("  " + mode + ": " + e.getMessage());
+                    } finally {
+                        deleteDir(dir);
+                    }
+                }
             }
-            claimedCount.incrementAndGet();
-            EventLog.emit(WatchEvent.BOUNTY_CLAIMED, reportId + "|" + claimer);
         }
 
-        WatchReport getById(String reportId) {
-            return reports.stream().filter(x -> reportId.equals(x.getId())).findFirst().orElse(null);
+        // In-memory submit throughput, one shard vs one shard per core.
+        static void submitScaling() {
+            int cores = Runtime.getRuntime().availableProcessors();
+            System.out.println("submits/s, " + cores + " cores");
+            for (int shards : new int[] { 1, Math.max(8, WatchLedger.defaultShards()) }) {
+                for (int threads : new int[] { 1, cores, 4 * cores }) {
+                    WatchLedger ledger = new WatchLedger(MAX_REPORTS_LIMIT, shards);
+                    long ops = timed(threads, 2_000, () -> ledger.appendReport("bench report body", "0xbench", 1));
+                    System.out.printf("  %2d shards %3d threads  %,12d submits/s  %s%n", ledger.shardCount(), threads, ops / 2, StatsFormatter.format(ledger.stats()));
+                }
+            }
         }
 
-        List<WatchReport> listUnclaimed(int offset, int limit) {
-            List<WatchReport> unclaimed = reports.stream().filter(x -> !x.isClaimed()).collect(Collectors.toList());
-            int size = unclaimed.size();
-            int from = Math.min(offset, size);
-            int to = Math.min(from + limit, size);
-            return new ArrayList<>(unclaimed.subList(from, to));
+        // Writers submit across shards while one reader tails the keyset cursor; every id must come back
+        // exactly once and in ascending order.
+        static void keysetTail() {
+            int writers = 16, shards = 8;
+            WatchLedger ledger = new WatchLedger(MAX_REPORTS_LIMIT, shards);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            long[][] written = new long[writers][];
+            Thread[] ts = new Thread[writers];
+            for (int t = 0; t < writers; t++) {
+                int w = t;
+                ts[t] = new Thread(() -> {
+                    long[] ids = new long[1024];
+                    int n = 0;
+                    while (System.nanoTime() < deadline) {
+                        try {
+                            if (n == ids.length) ids = Arrays.copyOf(ids, n * 2);
+                            ids[n++] = ledger.appendReport("tail", "0xbench", 1);
+                        } catch (CG_Exception e) {
+                            break;
+                        }
+                        if ((n & 63) == 0) Thread.yield();
+                    }
+                    written[w] = Arrays.copyOf(ids, n);
+                });
+                ts[t].start();
+            }
+            long[] seen = new long[1 << 16];
+            int seenCount = 0, pages = 0, disorder = 0;
+            long cursor = -1, last = Long.MAX_VALUE;
+            while (true) {
+                if (last == Long.MAX_VALUE && Arrays.stream(ts).noneMatch(Thread::isAlive)) {
+                    last = Arrays.stream(written).flatMapToLong(Arrays::stream).max().orElse(-1);
+                }
+                boolean drained = last != Long.MAX_VALUE && ledger.horizon() > last;
+                List<WatchReport> page = ledger.listAfter(cursor, CURSOR_QUERY_LIMIT, false);
+                pages++;
+                for (WatchReport r : page) {
+                    if (r.getId() <= cursor) disorder++;
+                    cursor = r.getId();
+                    if (seenCount == seen.length) seen = Arrays.copyOf(seen, seenCount * 2);
+                    seen[seenCount++] = cursor;
+                }
+                if (page.isEmpty() && drained) break;
+                if (page.isEmpty()) Thread.yield();
+            }
+            long[] all = Arrays.stream(written).flatMapToLong(Arrays::stream).sorted().toArray();
+            long[] got = Arrays.copyOf(seen, seenCount);
+            Arrays.sort(got);
+            int missed = 0, dup = 0;
+            for (int i = 1; i < got.length; i++) if (got[i] == got[i - 1]) dup++;
+            for (long id : all) if (Arrays.binarySearch(got, id) < 0) missed++;
+            System.out.printf("keyset tail: %d writers, %d shards, %,d submitted, %,d read in %,d pages  missed %d  duplicated %d  out of order %d%n",
+                writers, ledger.shardCount(), all.length, got.length, pages, missed, dup, disorder);
         }
 
-        List<WatchReport> list(int offset, int limit) {
-            int size = reports.size();
-            int from = Math.min(offset, size);
-            int to = Math.min(from + limit, size);
-            List<WatchReport> out = new ArrayList<>();
-            for (int i = from; i < to; i++) out.add(reports.get(i));
-            return out;
+        // Snapshot of `size` reports plus a 10k-record journal tail, then a cold reopen.
+        static void recovery(int size) {
+            File dir = null;
+            try {
+                dir = java.nio.file.Files.createTempDirectory("cg-snap").toFile();
+                WatchLedger ledger = new WatchLedger(MAX_REPORTS_LIMIT);
+                LedgerJournal journal = LedgerJournal.open(dir, Durability.ASYNC, ledger);
+                ledger.attachJournal(journal);
+                long[] ids = seed(ledger, size);
+                for (int i = 0; i < size; i += 3) ledger.claim(ids[i], "0xbench");
+                long t0 = System.nanoTime();
+                long seg = journal.rollForSnapshot();
+                int n = LedgerSnapshot.write(dir, ledger, seg);
+                journal.truncateBefore(seg);
+                long snapMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+                for (int i = 0; i < 10_000; i++) ledger.appendReport("tail", "0x0", 1);
+                journal.close();
+                LedgerStats before = ledger.stats();
+                ledger = null;
+                ids = null;
+                System.gc();
+                t0 = System.nanoTime();
+                WatchLedger recovered = new WatchLedger(MAX_REPORTS_LIMIT);
+                LedgerJournal.open(dir, Durability.ASYNC, recovered).close();
+                long loadMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+                LedgerStats after = recovered.stats();
+                System.out.printf("recovery: snapshot of %,d reports written in %d ms, reopened in %d ms (%s -> %s)%n",
+                    n, snapMs, loadMs, StatsFormatter.format(before), StatsFormatter.format(after));
+            } catch (IOException e) {
+                System.out.println("recovery: " + e.getMessage());
+            } finally {
+                deleteDir(dir);
+            }
         }
 
-        int reportCount() { return reports.size(); }
+        static void deleteDir(File dir) {
+            if (dir == null) return;
+            File[] files = dir.listFiles();
+            if (files != null) for (File f : files) f.delete();
+            dir.delete();
+        }
 
-        LedgerStats stats() {
-            return new LedgerStats(reports.size(), totalBounty.get(), claimedCount.get());
+        // Ring buffer against the previous synchronized CopyOnWriteArrayList log, with concurrent emitters
+        // and one reader polling getRecent(50) as /events would.
+        static void eventLog() {
+            System.out.printf("EventLog emit throughput (ops/s), 1 reader polling recent(50); %d warmup + %d measured rounds of %d ms, median [min..max]%n",
+                WARMUP_ROUNDS, ROUNDS, ROUND_MILLIS);
+            System.out.printf("%8s %34s %34s%n", "threads", "cow+lock", "ring");
+            for (int threads : new int[] { 1, 2, 4, 8, 16 }) {
+                List<String> cow = new CopyOnWriteArrayList<>();
+                Runnable legacyEmit = () -> {
+                    synchronized (cow) {
+                        cow.add("ReportSubmitted|CG-0000000000000000|0xbench");
+                        while (cow.size() > 200) cow.remove(0);
+                    }
+                };
+                Runnable legacyRead = () -> {
+                    synchronized (cow) {
+                        int size = cow.size();
+                        new ArrayList<>(cow.subList(Math.max(0, size - 50), size));
+                    }
+                };
+                EventRing ring = new EventRing(1 << 20, 0);
+                EventRecord rec = new EventRecord();
+                Runnable ringEmit = () -> ring.append(EventKind.REPORT_SUBMITTED, 42L, "0xbench");
+                Runnable ringRead = () -> {
+                    for (long seq : ring.recent(50, EventFilter.ALL, rec)) ring.read(seq, rec);
+                };
+                System.out.printf("%8d %34s %34s%n", threads, rounds(threads, legacyEmit, legacyRead), rounds(threads, ringEmit, ringRead));
+            }
         }
-    }
 
-    public static final class LedgerStats {
-        private final int reportCount;
-        private final long totalBountyWei;
-        private final int claimedCount;
+        // Journals 1M events across several segments, then replays them from the maps.
+        static void eventJournal() {
+            File dir = new File(System.getProperty("java.io.tmpdir"), "cg-bench-events");
+            deleteDir(dir);
+            try {
+                EventJournal journal = EventJournal.open(dir, 24L << 20, TimeUnit.DAYS.toMillis(1));
+                EventRing ring = new EventRing(1 << 20, journal.next());
+                journal.follow(ring);
+                int n = 1_000_000;
+                long t0 = System.nanoTime();
+                for (int i = 0; i < n; i++) ring.append(EventKind.REPORT_SUBMITTED, i, "0xbench");
+                while (journal.next() < n) Thread.sleep(1);
+                long t1 = System.nanoTime();
+                long[] sum = { 0 };
+                long seq = journal.first();
+                while (seq < journal.next()) seq = journal.read(seq, 1000, r -> {
+                    sum[0] += r.reportId;
+                    return true;
+                });
+                long t2 = System.nanoTime();
+                System.out.printf("event journal: %d events written in %d ms; replayed %d..%d (id sum %d) in %d ms; %d segments retained%n",
+                    n, TimeUnit.NANOSECONDS.toMillis(t1 - t0), journal.first(), seq, sum[0], TimeUnit.NANOSECONDS.toMillis(t2 - t1),
+                    dir.list((d, f) -> f.endsWith(".log")).length);
+            } catch (IOException | InterruptedException e) {
+                System.out.println("event journal bench failed: " + e);
+            } finally {
+                deleteDir(dir);
+            }
+        }
 
-        public LedgerStats(int reportCount, long totalBountyWei, int claimedCount) {
-            this.reportCount = reportCount;
-            this.totalBountyWei = totalBountyWei;
-            this.claimedCount = claimedCount;
+        // Both front ends, with a new connection per request and with keep-alive, while `idle` further
+        // connections sit open as slow clients would. Reports requests/s, latency percentiles and the
+        // peak thread count.
+        static void httpLoad(int idle) {
+            int clients = 32;
+            System.out.println("HTTP GET /health, " + clients + " clients, " + idle + " idle connections held");
+            System.out.printf("%-12s %10s %10s %10s %10s%n", "mode", "req/s", "p50 us", "p99 us", "threads");
+            java.lang.management.ThreadMXBean mx = java.lang.management.ManagementFactory.getThreadMXBean();
+            int port = 39_100;
+            for (int run = 0; run < 4; run++) {
+                boolean nio = (run & 1) != 0, keepAlive = run >= 2;
+                Cigilante app = new Cigilante(CG_Options.parse(nio ? new String[] { "--port", String.valueOf(port), "--nio" } : new String[] { "--port", String.valueOf(port) }));
+                Thread server = new Thread(nio ? app::startNioServer : app::startServer, "bench-server");
+                server.setDaemon(true);
+                server.start();
+                List<Socket> held = new ArrayList<>();
+                try {
+                    awaitPort(port);
+                    for (int i = 0; i < idle; i++) held.add(new Socket("127.0.0.1", port));
+                    Thread.sleep(500);
+                    mx.resetPeakThreadCount();
+                    byte[] request = ("GET /health HTTP/1.1\r\nHost: bench\r\n" + (keepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.UTF_8);
+                    long[][] latencies = new long[clients][1 << 18];
+                    int[] counts = new int[clients];
+                    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+                    int p = port;
+                    Thread[] ts = new Thread[clients];
+                    for (int c = 0; c < clients; c++) {
+                        int me = c;
+                        ts[c] = new Thread(() -> {
+                            byte[] buf = new byte[4096];
+                            Socket conn = null;
+                            InputStream connIn = null;
+                            while (System.nanoTime() < deadline && counts[me] < latencies[me].length) {
+                                long t0 = System.nanoTime();
+                                try {
+                                    if (!keepAlive) {
+                                        try (Socket s = new Socket("127.0.0.1", p)) {
+                                            s.getOutputStream().write(request);
+                                            InputStream in = s.getInputStream();
+                                            while (in.read(buf) >= 0) { }
+                                        }
+                                    } else {
+                                        if (conn == null) {
+                                            conn = new Socket("127.0.0.1", p);
+                                            conn.setTcpNoDelay(true);
+                                            connIn = new BufferedInputStream(conn.getInputStream());
+                                        }
+                                        conn.getOutputStream().write(request);
+                                        readResponse(connIn, buf);
+                                    }
+                                } catch (IOException e) {
+                                    try { if (conn != null) conn.close(); } catch (IOException ignored) { }
+                                    conn = null;
+                                    continue;
+                                }
+                                latencies[me][counts[me]++] = System.nanoTime() - t0;
+                            }
+                            try { if (conn != null) conn.close(); } catch (IOException ignored) { }
+                        });
+                        ts[c].start();
+                    }
+                    for (Thread t : ts) t.join();
+                    int total = 0;
+                    for (int n : counts) total += n;
+                    long[] all = new long[total];
+                    for (int c = 0, at = 0; c < clients; at += counts[c], c++) System.arraycopy(latencies[c], 0, all, at, counts[c]);
+                    Arrays.sort(all);
+                    System.out.printf("%-12s %10d %10d %10d %10d%n", (nio ? "nio" : "threads") + (keepAlive ? "+ka" : ""), total / 3,
+                        all.length == 0 ? 0 : all[all.length / 2] / 1000, all.length == 0 ? 0 : all[(int) (all.length * 0.99)] / 1000, mx.getPeakThreadCount());
+                } catch (IOException | InterruptedException e) {
+                    System.out.println("http bench failed: " + e);
+                } finally {
+                    for (Socket s : held) {
+                        try { s.close(); } catch (IOException ignored) { }
+                    }
+                    app.stopServer();
+                }
+                port++;
+            }
         }
-        public int getReportCount() { return reportCount; }
-        public long getTotalBountyWei() { return totalBountyWei; }
-        public int getClaimedCount() { return claimedCount; }
-    }
 
-    // --- Event types (unique names) ---
-    public static final class WatchEvent {
-        public static final String REPORT_SUBMITTED = "WatchReportSubmitted";
-        public static final String BOUNTY_CLAIMED = "WatchBountyClaimed";
-        public static final String LEDGER_CAP_REACHED = "WatchLedgerCapReached";
-    }
+        // Bytes allocated per /reports response, the previous StringBuilder + escape + getBytes + concat
+        // path against JsonWriter, measured on this thread after warm-up.
+        static void jsonAllocation() {
+            com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+            long self = Thread.currentThread().getId();
+            OutputStream discard = OutputStream.nullOutputStream();
+            System.out.println("/reports response: bytes allocated and ns per response");
+            System.out.printf("%8s %14s %14s %10s %10s%n", "reports", "legacy B", "writer B", "legacy ns", "writer ns");
+            for (int size : new int[] { 1, 10, 100 }) {
+                WatchLedger ledger = new WatchLedger(size);
+                for (int i = 0; i < size; i++) ledger.appendReport("report \"" + i + "\" body with a line\nand a tab\t, caf\u00e9", "0xbench", i);
+                List<WatchReport> list = ledger.list(0, size);
+                String next = PageCursor.next(list, null);
+                Runnable legacy = () -> {
+                    StringBuilder sb = new StringBuilder("{\"reports\":[");
+                    for (int i = 0; i < list.size(); i++) {
+                        if (i > 0) sb.append(',');
+                        WatchReport r = list.get(i);
+                        sb.append("{\"id\":\"").append(ReportIdGen.format(r.getId())).append("\",\"body\":\"").append(escape(r.getBody())).append("\",\"bountyWei\":").append(r.getBountyWei()).append(",\"claimed\":").append(r.isClaimed()).append("}");
+                    }
+                    sb.append("],\"next\":\"").append(next).append("\"}");
+                    byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+                    byte[] head = ("HTTP/1.1 200 OK\r\nContent-Type: " + ContentType.JSON_UTF8 + "\r\nContent-Length: " + body.length + "\r\nConnection: keep-alive\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+                    byte[] out = Arrays.copyOf(head, head.length + body.length);
+                    System.arraycopy(body, 0, out, head.length, body.length);
+                    try { discard.write(out); } catch (IOException ignored) { }
+                };
+                Runnable writer = () -> {
+                    try { ReportToJson.page(JsonWriter.local(), list, next, true).response().writeTo(discard, true); } catch (IOException ignored) { }
+                };
+                int rounds = Math.max(20_000, 2_000_000 / size);
+                long[] legacyCost = allocation(mx, self, legacy, rounds), writerCost = allocation(mx, self, writer, rounds);
+                System.out.printf("%8d %14d %14d %10d %10d%n", size, legacyCost[0], writerCost[0], legacyCost[1], writerCost[1]);
+            }
+        }
 
-    private static final class EventLog {
-        private static final int MAX_LOG = 200;
-        private static final List<String> log = new CopyOnWriteArrayList<>();
+        // {bytes, ns} per run of op, after a warm-up of the same length.
+        static long[] allocation(com.sun.management.ThreadMXBean mx, long thread, Runnable op, int rounds) {
+            for (int i = 0; i < rounds; i++) op.run();
+            long bytes = mx.getThreadAllocatedBytes(thread), t0 = System.nanoTime();
+            for (int i = 0; i < rounds; i++) op.run();
+            long ns = System.nanoTime() - t0;
+            return new long[] { (mx.getThreadAllocatedBytes(thread) - bytes) / rounds, ns / rounds };
+        }
+
+        // Reads one response off a kept-alive connection: headers, then Content-Length body bytes.
+        static void readResponse(InputStream in, byte[] buf) throws IOException {
+            int n = 0, length = -1;
+            while (length < 0) {
+                int c = in.read();
+                if (c < 0) throw new EOFException();
+                buf[n++] = (byte) c;
+                if (n >= 4 && buf[n - 1] == '\n' && buf[n - 3] == '\n') {
+                    String head = new String(buf, 0, n, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+                    int at = head.indexOf("content-length:");
+                    length = at < 0 ? 0 : Integer.parseInt(head.substring(at + 15, head.indexOf('\r', at)).trim());
+                }
+            }
+            while (length > 0) {
+                int r = in.read(buf, 0, Math.min(buf.length, length));
+                if (r < 0) throw new EOFException();
+                length -= r;
+            }
+        }
+
+        static void awaitPort(int port) throws InterruptedException {
+            for (int i = 0; i < 100; i++) {
+                try {
+                    new Socket("127.0.0.1", port).close();
+                    return;
+                } catch (IOException e) {
+                    Thread.sleep(50);
+                }
+            }
+        }
 
-        static void emit(String eventType, String payload) {
-            String entry = eventType + "|" + (payload != null ? payload : "");
-            synchronized (log) {
-                log.add(entry);
-                while (log.size() > MAX_LOG) log.remove(0);
+        static long withReader(Runnable read, java.util.function.LongSupplier measured) {
+            AtomicBoolean stop = new AtomicBoolean();
+            Thread reader = new Thread(() -> { while (!stop.get()) read.run(); });
+            reader.start();
+            try {
+                return measured.getAsLong();
+            } finally {
+                stop.set(true);
+                try { reader.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
             }
         }
 
-        static List<String> getRecent(int n) {
-            synchronized (log) {
-                int size = log.size();
-                int from = Math.max(0, size - n);
-                return new ArrayList<>(log.subList(from, size));
+        // WARMUP_ROUNDS discarded rounds, then ROUNDS measured ones, of op on each thread with read running
+        // alongside; the ops/s of the median, fastest and slowest measured round.
+        static String rounds(int threads, Runnable op, Runnable read) {
+            long[] perSecond = new long[ROUNDS];
+            for (int r = 0; r < WARMUP_ROUNDS + ROUNDS; r++) {
+                long ops = withReader(read, () -> timed(threads, ROUND_MILLIS, op));
+                if (r >= WARMUP_ROUNDS) perSecond[r - WARMUP_ROUNDS] = ops * 1000 / ROUND_MILLIS;
+            }
+            Arrays.sort(perSecond);
+            return String.format("%,d [%,d..%,d]", perSecond[ROUNDS / 2], perSecond[0], perSecond[ROUNDS - 1]);
+        }
+
+        // Runs op on each thread until the deadline and returns the total number of completed ops.
+        static long timed(int threads, long millis, Runnable op) {
+            LongAdder done = new LongAdder();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            Thread[] ts = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                ts[t] = new Thread(() -> {
+                    while (System.nanoTime() < deadline) {
+                        op.run();
+                        done.increment();
+                    }
+                });
+                ts[t].start();
+            }
+            for (Thread t : ts) {
+                try { t.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
             }
+            return done.sum();
+        }
+
+        static long[] seed(WatchLedger ledger, int size) {
+            long[] ids = new long[size];
+            for (int i = 0; i < size; i++) ids[i] = ledger.appendReport("bench", "0x0", i & 1023);
+            return ids;
         }
     }
 
@@ -570,6 +4886,12 @@ public final class Cigilante {
         static final String BATCH_TOO_LARGE = "CG_BatchTooLarge";
         static final String INVALID_ADDRESS = "CG_InvalidAddress";
         static final String MISSING_ID = "CG_MissingId";
+        static final String JOURNAL_WRITE_FAILED = "CG_JournalWriteFailed";
+        static final String INVALID_CURSOR = "CG_InvalidCursor";
+        static final String EVENT_READ_FAILED = "CG_EventReadFailed";
+        static final String INVALID_EVENT_TYPE = "CG_InvalidEventType";
+        static final String RATE_LIMITED = "CG_RateLimited";
+        static final String MALFORMED_ITEM = "CG_MalformedItem";
     }
 
     private static final class ReportSanitizer {
@@ -589,19 +4911,79 @@ public final class Cigilante {
         }
     }
 
+    // Reports are written from their cached fragment (see ReportFragment); only the claim fields,
+    // which change, are encoded per request.
     private static final class ReportToJson {
-        static String one(WatchReport r) {
-            if (r == null) return "null";
-            return "{\"id\":\"" + escape(r.getId()) + "\",\"body\":\"" + escape(r.getBody()) + "\",\"bountyWei\":" + r.getBountyWei() + ",\"from\":\"" + escape(r.getFrom()) + "\",\"claimed\":" + r.isClaimed() + "}";
+        // A listing entry: id, body, bountyWei, and the claimed flag when withClaimed.
+        static void summary(JsonWriter w, WatchReport r, boolean withClaimed) {
+            ReportFragment f = fragment(r);
+            w.fragment(f.json, f.summaryEnd);
+            if (withClaimed) w.name(JsonKeys.CLAIMED).value(r.isClaimed());
+            w.endObject();
+        }
+
+        // The full report; claimed and claimedBy come from one read of the claim state.
+        static void detail(JsonWriter w, WatchReport r) {
+            ClaimState c = r.getClaimState();
+            ReportFragment f = fragment(r);
+            w.fragment(f.json, f.json.length).name(JsonKeys.CLAIMED).value(c != null);
+            if (c != null) w.name(JsonKeys.CLAIMED_BY).value(c.getBy());
+            w.endObject();
+        }
+
+        static JsonWriter page(JsonWriter w, List<WatchReport> list, String next, boolean withClaimed) {
+            w.beginObject().name(JsonKeys.REPORTS).beginArray();
+            for (int i = 0; i < list.size(); i++) summary(w, list.get(i), withClaimed);
+            return w.endArray().name(JsonKeys.NEXT).value(next).endObject();
+        }
+
+        private static ReportFragment fragment(WatchReport r) {
+            ReportFragment f = r.fragment();
+            if (f != null) return f;
+            JsonWriter s = JsonWriter.scratch();
+            s.beginObject().name(JsonKeys.ID).reportId(r.getId()).name(JsonKeys.BODY).value(r.getBody()).name(JsonKeys.BOUNTY_WEI).value(r.getBountyWei());
+            int summaryEnd = s.length();
+            s.name(JsonKeys.FROM).value(r.getFrom());
+            f = new ReportFragment(s.toByteArray(), summaryEnd);
+            FragmentCache.retain(r, f);
+            return f;
         }
-        static String array(List<WatchReport> list) {
-            StringBuilder sb = new StringBuilder("[");
-            for (int i = 0; i < list.size(); i++) {
-                if (i > 0) sb.append(',');
-                sb.append(one(list.get(i)));
+    }
+
+    // The immutable part of a report as open JSON: {"id","body","bountyWei" up to summaryEnd, then
+    // "from". Listings copy the prefix, the detail view all of it; the caller closes the object.
+    private static final class ReportFragment {
+        final byte[] json;
+        final int summaryEnd;
+
+        ReportFragment(byte[] json, int summaryEnd) {
+            this.json = json;
+            this.summaryEnd = summaryEnd;
+        }
+    }
+
+    // Byte budget for the fragments reports keep (--fragment-cache-mb). Fragments are retained in the
+    // order they were built and the oldest are dropped once the budget is exceeded; a dropped fragment
+    // is rebuilt the next time its report is written. A budget of 0 keeps none.
+    private static final class FragmentCache {
+        private static final int OVERHEAD = 64;   // holder, array header and queue node
+        private static final AtomicLong bytes = new AtomicLong();
+        private static final ConcurrentLinkedQueue<WatchReport> retained = new ConcurrentLinkedQueue<>();
+        private static volatile long budget = 64L << 20;
+
+        static void configure(long budgetBytes) { budget = budgetBytes; }
+
+        static void retain(WatchReport r, ReportFragment f) {
+            long size = f.json.length + OVERHEAD;
+            if (size > budget || !r.keepFragment(f)) return;
+            retained.add(r);
+            long total = bytes.addAndGet(size);
+            while (total > budget) {
+                WatchReport victim = retained.poll();
+                if (victim == null) break;
+                ReportFragment old = victim.dropFragment();
+                total = old != null ? bytes.addAndGet(-(old.json.length + OVERHEAD)) : bytes.get();
             }
-            sb.append("]");
-            return sb.toString();
         }
     }
 
@@ -638,25 +5020,63 @@ public final class Cigilante {
         static String orDefault(String s, String def) { return s != null && !s.isEmpty() ? s : def; }
     }
 
+    // Report ids are one long: [0][31-bit second since 2024-01-01Z][6-bit shard][26-bit slot].
+    // Ids compare as primitives in time order; the text form "CG-" + 16 hex digits exists only at
+    // the JSON/CLI boundary and sorts the same way.
     private static final class ReportIdGen {
-        static String next() { return "CG-" + System.currentTimeMillis() + "-" + (int)(Math.random() * 100000); }
+        static final int SHARD_BITS = 6;
+        static final int SLOT_BITS = 26;
+        static final long EPOCH_SECOND = 1_704_067_200L;
+        static final int TEXT_LEN = WatchConstants.REPORT_ID_PREFIX_LEN + 16;
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        static long nowSecond() { return System.currentTimeMillis() / 1000 - EPOCH_SECOND; }
+
+        static long pack(long second, int shard, int slot) {
+            return second << (SHARD_BITS + SLOT_BITS) | (long) shard << SLOT_BITS | slot;
+        }
+
+        static long second(long id) { return id >>> (SHARD_BITS + SLOT_BITS); }
+        static int shard(long id) { return (int) (id >>> SLOT_BITS) & ((1 << SHARD_BITS) - 1); }
+        static int slot(long id) { return (int) id & ((1 << SLOT_BITS) - 1); }
+
+        // format(id) as ASCII bytes at dst[at], TEXT_LEN of them.
+        static void formatTo(long id, byte[] dst, int at) {
+            dst[at] = 'C';
+            dst[at + 1] = 'G';
+            dst[at + 2] = '-';
+            for (int i = TEXT_LEN - 1; i >= WatchConstants.REPORT_ID_PREFIX_LEN; i--, id >>>= 4) dst[at + i] = (byte) HEX[(int) id & 15];
+        }
+
+        static String format(long id) {
+            char[] c = new char[TEXT_LEN];
+            c[0] = 'C';
+            c[1] = 'G';
+            c[2] = '-';
+            for (int i = TEXT_LEN - 1; i >= WatchConstants.REPORT_ID_PREFIX_LEN; i--, id >>>= 4) c[i] = HEX[(int) id & 15];
+            return new String(c);
+        }
+
+        // Returns the packed id, or -1 for anything that is not "CG-" + 16 hex digits.
+        static long parse(CharSequence s) {
+            if (s == null || s.length() != TEXT_LEN || s.charAt(0) != 'C' || s.charAt(1) != 'G' || s.charAt(2) != '-') return -1;
+            long id = 0;
+            for (int i = WatchConstants.REPORT_ID_PREFIX_LEN; i < TEXT_LEN; i++) {
+                int d = Character.digit(s.charAt(i), 16);
+                if (d < 0) return -1;
+                id = id << 4 | d;
+            }
+            return id;
+        }
     }
 
     private static final class StatsFormatter {
         static String format(LedgerStats s) { return "reports=" + s.getReportCount() + ", totalBounty=" + s.getTotalBountyWei() + ", claimed=" + s.getClaimedCount(); }
     }
 
-    private static final class RouteMatcher {
-        static boolean isReports(String p) { return p != null && p.startsWith(API_REPORTS); }
-        static boolean isSubmit(String p) { return p != null && p.startsWith(API_SUBMIT); }
-        static boolean isClaim(String p) { return p != null && p.startsWith(API_CLAIM); }
-        static boolean isStats(String p) { return p != null && p.startsWith(API_STATS); }
-        static boolean isHealth(String p) { return p != null && p.equals(API_HEALTH); }
-    }
-
     private static final class ResponseBuilder {
-        static byte[] ok(String json) { return jsonResponse(json); }
-        static byte[] bad(String msg) { return jsonResponse("{\"error\":\"" + escape(msg) + "\"}", 400); }
+        static Response ok(String json) { return jsonResponse(json); }
+        static Response bad(String msg) { return jsonResponse("{\"error\":\"" + escape(msg) + "\"}", 400); }
     }
 
     private static final class AddressBook {
@@ -698,6 +5118,226 @@ public final class Cigilante {
         }
     }
 
+    // A /submit/batch body: newline-delimited JSON objects with body, from and bountyWei (a JSON array of
+    // them parses too), or a form body in which a repeated key starts the next item. Items are parsed and
+    // validated in one pass; an item that fails keeps its error code and is not appended, and parsing
+    // picks up again after it (see itemEnd), so one bad item costs only itself.
+    private static final class SubmitBatch {
+        private static final String[] FIELDS = { JsonKeys.BODY, JsonKeys.FROM, JsonKeys.BOUNTY_WEI };
+
+        String[] bodies = new String[16], givenFroms = new String[16], errors = new String[16];
+        int[] bounties = new int[16];
+        int size;
+
+        static SubmitBatch parse(Request req) throws CG_Exception {
+            SubmitBatch batch = new SubmitBatch();
+            byte[] b = req.buf;
+            int p = skip(b, req.bodyOff, req.bodyOff + req.bodyLen), end = req.bodyOff + req.bodyLen;
+            if (p < end && (b[p] == '{' || b[p] == '[')) batch.json(b, p, end);
+            else batch.form(b, p, end);
+            return batch;
+        }
+
+        private void form(byte[] b, int p, int end) throws CG_Exception {
+            String[] vals = new String[FIELDS.length];
+            boolean open = false;
+            for (int i = p; i < end; ) {
+                int amp = i;
+                while (amp < end && b[amp] != '&') amp++;
+                int eq = i;
+                while (eq < amp && b[eq] != '=') eq++;
+                int f = field(b, i, eq - i);
+                if (f >= 0) {
+                    if (vals[f] != null) {
+                        add(vals, null);
+                        Arrays.fill(vals, null);
+                    }
+                    int v = Math.min(eq + 1, amp);
+                    vals[f] = Request.decode(b, v, amp - v);
+                    open = true;
+                }
+                i = amp + 1;
+            }
+            if (open) add(vals, null);
+        }
+
+        private void json(byte[] b, int p, int end) throws CG_Exception {
+            String[] vals = new String[FIELDS.length];
+            while (true) {
+                while (p < end && (b[p] == ',' || b[p] == '[' || b[p] == ']' || space(b[p]))) p++;
+                if (p == end) return;
+                Arrays.fill(vals, null);
+                int q = object(b, p, end, vals);
+                if (q < 0) {
+                    add(vals, CG_ErrorCodes.MALFORMED_ITEM);
+                    p = Math.max(p + 1, itemEnd(b, p, end));
+                } else {
+                    add(vals, null);
+                    p = q;
+                }
+            }
+        }
+
+        // The address item i is recorded under.
+        String from(int i) { return givenFroms[i] != null ? givenFroms[i] : Defaults.ZERO_ADDRESS; }
+
+        private void add(String[] vals, String error) throws CG_Exception {
+            if (size == MAX_BATCH_ITEMS) throw new CG_Exception(CG_ErrorCodes.BATCH_TOO_LARGE);
+            if (size == bodies.length) {
+                int n = size * 2;
+                bodies = Arrays.copyOf(bodies, n);
+                givenFroms = Arrays.copyOf(givenFroms, n);
+                errors = Arrays.copyOf(errors, n);
+                bounties = Arrays.copyOf(bounties, n);
+            }
+            String body = vals[0] != null ? vals[0].trim() : "";
+            int wei = vals[2] != null ? bounty(vals[2]) : 0;
+            if (error == null) {
+                ValidationResult r = ReportValidator.body(body);
+                if (r.ok) r = ReportValidator.bounty(wei);
+                error = r.code;
+            }
+            bodies[size] = body;
+            givenFroms[size] = vals[1];
+            bounties[size] = wei;
+            errors[size++] = error;
+        }
+
+        // Decimal text as an int; -1 (out of range) when malformed.
+        private static int bounty(String s) {
+            s = s.trim();
+            if (s.isEmpty() || s.length() > 9) return -1;
+            int v = 0;
+            for (int i = 0; i < s.length(); i++) {
+                int d = s.charAt(i) - '0';
+                if (d < 0 || d > 9) return -1;
+                v = v * 10 + d;
+            }
+            return v;
+        }
+
+        private static int field(byte[] b, int off, int len) {
+            for (int f = 0; f < FIELDS.length; f++) if (FIELDS[f].length() == len && Request.matches(b, off, FIELDS[f])) return f;
+            return -1;
+        }
+
+        // One flat object of string, number, boolean or null values; returns the offset after it, or -1.
+        private static int object(byte[] b, int p, int end, String[] vals) {
+            if (b[p] != '{') return -1;
+            p = skip(b, p + 1, end);
+            if (p < end && b[p] == '}') return p + 1;
+            while (true) {
+                if (p >= end || b[p] != '"') return -1;
+                int ke = stringEnd(b, p + 1, end);
+                if (ke < 0) return -1;
+                int f = field(b, p + 1, ke - p - 1);
+                p = skip(b, ke + 1, end);
+                if (p >= end || b[p] != ':') return -1;
+                p = skip(b, p + 1, end);
+                if (p >= end) return -1;
+                String value;
+                if (b[p] == '"') {
+                    int ve = stringEnd(b, p + 1, end);
+                    if (ve < 0 || (value = unescape(b, p + 1, ve)) == null) return -1;
+                    p = ve + 1;
+                } else {
+                    int vs = p;
+                    while (p < end && b[p] != ',' && b[p] != '}' && !space(b[p])) p++;
+                    if (p == vs || b[vs] == '{' || b[vs] == '[') return -1;
+                    value = p - vs == 4 && Request.matches(b, vs, "null") ? null : new String(b, vs, p - vs, StandardCharsets.ISO_8859_1);
+                }
+                if (f >= 0) vals[f] = value;
+                p = skip(b, p, end);
+                if (p >= end) return -1;
+                if (b[p] == '}') return p + 1;
+                if (b[p] != ',') return -1;
+                p = skip(b, p + 1, end);
+            }
+        }
+
+        // Where the malformed item at p ends: just past the brace closing its object, or at the ',',
+        // newline or '{' that follows it outside any object. An object never closed ends at the next
+        // line that starts with '{'. Strings are skipped; a string never ends past a newline.
+        private static int itemEnd(byte[] b, int p, int end) {
+            int depth = 0;
+            boolean lineStart = false;
+            for (int i = p; i < end; i++) {
+                byte c = b[i];
+                if (c == '"') {
+                    while (++i < end && b[i] != '"' && b[i] != '\n') if (b[i] == '\\') i++;
+                    if (i >= end) return end;
+                    if (b[i] == '\n') i--;
+                } else if (c == '\n') {
+                    if (depth == 0) return i;
+                    lineStart = true;
+                    continue;
+                } else if (space(c)) {
+                    continue;
+                } else if (c == '{' || c == '[') {
+                    if (i > p && (depth == 0 || lineStart && c == '{')) return i;
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (depth == 0) return i;
+                    if (--depth == 0) return i + 1;
+                } else if (c == ',' && depth == 0) {
+                    return i;
+                }
+                lineStart = false;
+            }
+            return end;
+        }
+
+        // Offset of the closing quote of a string whose first character is at p, or -1.
+        private static int stringEnd(byte[] b, int p, int end) {
+            for (; p < end; p++) {
+                if (b[p] == '\\') p++;
+                else if (b[p] == '"') return p;
+            }
+            return -1;
+        }
+
+        private static String unescape(byte[] b, int s, int e) {
+            int i = s;
+            while (i < e && b[i] != '\\') i++;
+            if (i == e) return new String(b, s, e - s, StandardCharsets.UTF_8);
+            StringBuilder out = new StringBuilder(e - s);
+            while (true) {
+                out.append(new String(b, s, i - s, StandardCharsets.UTF_8));
+                if (i == e) return out.toString();
+                byte c = b[++i];
+                switch (c) {
+                    case '"': case '\\': case '/': out.append((char) c); break;
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'n': out.append('\n'); break;
+                    case 'r': out.append('\r'); break;
+                    case 't': out.append('\t'); break;
+                    case 'u':
+                        if (i + 4 >= e) return null;
+                        int u = 0;
+                        for (int k = 1; k <= 4; k++) {
+                            int d = Request.hex(b[i + k]);
+                            if (d < 0) return null;
+                            u = u << 4 | d;
+                        }
+                        out.append((char) u);
+                        i += 4;
+                        break;
+                    default: return null;
+                }
+                s = ++i;
+                while (i < e && b[i] != '\\') i++;
+            }
+        }
+
+        private static boolean space(byte c) { return c == ' ' || c == '\t' || c == '\r' || c == '\n'; }
+
+        private static int skip(byte[] b, int p, int end) {
+            while (p < end && space(b[p])) p++;
+            return p;
+        }
+    }
+
     private static final class BatchValidator {
         static ValidationResult offsetLimit(int offset, int limit) {
             if (offset < 0) return ValidationResult.fail("CG_InvalidOffset");
@@ -781,7 +5421,8 @@ public final class Cigilante {
             this.id = id; this.body = body; this.bountyWei = bountyWei; this.from = from; this.claimed = claimed; this.claimedBy = claimedBy;
         }
         static ReportDto from(WatchReport r) {
-            return new ReportDto(r.getId(), r.getBody(), r.getBountyWei(), r.getFrom(), r.isClaimed(), r.getClaimedBy());
+            ClaimState c = r.getClaimState();
+            return new ReportDto(ReportIdGen.format(r.getId()), r.getBody(), r.getBountyWei(), r.getFrom(), c != null, c != null ? c.getBy() : null);
         }
     }
     private static final class StatsDto {
@@ -797,13 +5438,37 @@ public final class Cigilante {
         static final String ID = "id"; static final String BODY = "body"; static final String BOUNTY_WEI = "bountyWei";
         static final String FROM = "from"; static final String CLAIMED = "claimed"; static final String CLAIMED_BY = "claimedBy";
         static final String REPORTS = "reports"; static final String ERROR = "error"; static final String REPORT_ID = "reportId";
-        static final String EVENTS = "events"; static final String OK = "ok";
+        static final String EVENTS = "events"; static final String OK = "ok"; static final String NEXT = "next";
+        static final String OLDEST = "oldest"; static final String SEQ = "seq"; static final String TYPE = "type";
+        static final String AT = "at"; static final String ADDRESS = "address"; static final String ROUTES = "routes";
+        static final String PATH = "path"; static final String REQUESTS = "requests"; static final String ERRORS = "errors";
+        static final String MEAN_MICROS = "meanMicros"; static final String SHED = "shed"; static final String THROTTLED_IP = "throttledIp";
+        static final String THROTTLED_FROM = "throttledFrom"; static final String RESULTS = "results"; static final String ACCEPTED = "accepted";
+        static final String MISSED = "missed"; static final String STREAMS = "streams";
     }
     private static final class HttpStatus {
         static final int OK = 200; static final int BAD_REQUEST = 400; static final int NOT_FOUND = 404;
+        static final int NOT_MODIFIED = 304; static final int METHOD_NOT_ALLOWED = 405; static final int PAYLOAD_TOO_LARGE = 413;
+        static final int TOO_MANY_REQUESTS = 429; static final int INTERNAL_ERROR = 500; static final int SERVICE_UNAVAILABLE = 503;
+
+        static String reason(int status) {
+            switch (status) {
+                case OK: return "OK";
+                case BAD_REQUEST: return "Bad Request";
+                case NOT_FOUND: return "Not Found";
+                case NOT_MODIFIED: return "Not Modified";
+                case METHOD_NOT_ALLOWED: return "Method Not Allowed";
+                case PAYLOAD_TOO_LARGE: return "Payload Too Large";
+                case TOO_MANY_REQUESTS: return "Too Many Requests";
+                case INTERNAL_ERROR: return "Internal Server Error";
+                case SERVICE_UNAVAILABLE: return "Service Unavailable";
+                default: return "Status";
+            }
+        }
     }
     private static final class ContentType {
         static final String JSON_UTF8 = "application/json; charset=utf-8";
+        static final String HTML_UTF8 = "text/html; charset=utf-8";
     }
 
     private static final class V1 { static String ref() { return WATCH_CHAIN_REF; } }